@@ -0,0 +1,102 @@
+import benchmarks.Workloads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The benchmarks of the hot paths: building a decision tree, deciding with it, deciding with naive Bayes,
+ * k-means iterations, loading a .data file, reading its data cache and loading the car data set.
+ * All but carData run on data of DataGenerator with a fixed seed, in the schema of the car data set.
+ */
+public class CarWorkloads implements Workloads {
+    private static final long SEED = 42;
+    private static final int K = 16; //centers of the k-means benchmark
+    private static final int DIMENSIONS = 8; //of the k-means benchmark
+    private static final int ITERATIONS_PER_FIT = 5; //k-means iterations per measured operation
+
+    @Override
+    public Workload setup(String name, int size, ForkJoinPool pool) throws IOException {
+        LoadC4_5.Schema schema = LoadC4_5.CarData.schema();
+        switch (name) {
+            case "id3": {
+                int[][] data = new DataGenerator(SEED, pool).categorical(schema, size);
+                return () -> {
+                    new DecisionTree(schema.classes, schema.attributes, data, schema.attributeNames).ID3(pool, 1024);
+                    return 1;
+                };
+            }
+            case "decide": {
+                int[][] data = new DataGenerator(SEED, pool).categorical(schema, size);
+                DecisionTree tree = new DecisionTree(schema.classes, schema.attributes, data, schema.attributeNames);
+                tree.ID3();
+                return decideAll(tree.compile(), data, pool);
+            }
+            case "naiveBayes": {
+                int[][] data = new DataGenerator(SEED, pool).categorical(schema, size);
+                return decideAll(new NaiveBayes(schema.classes, schema.attributes, schema.attributeNames, data), data, pool);
+            }
+            case "kMeansIteration": {
+                DataGenerator generator = new DataGenerator(SEED, pool);
+                double[] points = generator.blobs(generator.blobCenters(K, DIMENSIONS, 10), DIMENSIONS, 1, size);
+                K_Means.Settings settings = new K_Means.Settings().seed(SEED).tolerance(0).pool(pool)
+                        .listener(iteration -> iteration.getNumber() < ITERATIONS_PER_FIT);
+                return () -> new K_Means(points, DIMENSIONS, K, settings).getIterations();
+            }
+            case "load": {
+                Path data = temporaryDataFile(schema, size, pool);
+                return () -> (pool.getParallelism() == 1 ? LoadC4_5.loadData(schema, data)
+                        : LoadC4_5.loadDataParallel(schema, data, pool)).length;
+            }
+            case "loadCache": {
+                Path data = temporaryDataFile(schema, size, pool);
+                Path cache = Paths.get(data + ".cache");
+                cache.toFile().deleteOnExit();
+                DataCache.load(data, cache, schema);
+                return () -> DataCache.read(cache, data).trainingData.length;
+            }
+            case "carData":
+                return () -> LoadC4_5.CarData.load().length;
+            default:
+                throw new IllegalArgumentException("unknown benchmark " + name);
+        }
+    }
+
+    /**
+     * @param classifier model to decide with
+     * @param data       rows to decide
+     * @param pool       pool, which decides slices of the rows in parallel
+     * @return operation, which decides all rows
+     */
+    private static Workload decideAll(Classifier classifier, int[][] data, ForkJoinPool pool) {
+        int slices = pool.getParallelism();
+        int[][][] rows = new int[slices][][];
+        int[][] out = new int[slices][];
+        for (int s = 0; s < slices; s++) {
+            rows[s] = Arrays.copyOfRange(data, (int) ((long) data.length * s / slices), (int) ((long) data.length * (s + 1) / slices));
+            out[s] = new int[rows[s].length];
+        }
+        return () -> {
+            pool.submit(() -> IntStream.range(0, slices).parallel().forEach(s -> classifier.decideAll(rows[s], out[s]))).join();
+            return data.length;
+        };
+    }
+
+    /**
+     * @param schema classes and attributes
+     * @param size   number of examples
+     * @param pool   pool, which generates the examples
+     * @return .data file, which gets deleted when the JVM exits
+     * @throws IOException if the file can't be written
+     */
+    private static Path temporaryDataFile(LoadC4_5.Schema schema, int size, ForkJoinPool pool) throws IOException {
+        Path data = Files.createTempFile("benchmark", ".data");
+        data.toFile().deleteOnExit();
+        new DataGenerator(SEED, pool).writeCategorical(data, null, schema, size);
+        return data;
+    }
+}
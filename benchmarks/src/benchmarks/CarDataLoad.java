@@ -0,0 +1,43 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of loading the car data set, which has a fixed size.
+ * Needs car.data in the working directory; the data cache next to it is used once it exists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CarDataLoad {
+    private Workloads.Workload operation;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        operation = Workloads.get().setup("carData", 0, null);
+    }
+
+    /**
+     * @return number of loaded examples
+     * @throws Exception if car.data can't be read
+     */
+    @Benchmark
+    public long carData() throws Exception {
+        return operation.run();
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the hot paths for each data set size and thread count, on data of DataGenerator with a fixed seed.
+ * One operation is one ID3 build, deciding all rows with a compiled tree or naive Bayes, five k-means iterations,
+ * parsing the whole .data file, or reading the whole data cache, see CarWorkloads.
+ * <p>
+ * Usage: HotPaths [JMH options], e.g. HotPaths -p benchmark=id3 -p size=100000.
+ * The GC profiler is always added, so the allocation rate is reported along with the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2) //a fresh JVM per benchmark, so the JIT profile of one doesn't affect the next
+public class HotPaths {
+    @Param({"id3", "decide", "naiveBayes", "kMeansIteration", "load", "loadCache"})
+    public String benchmark;
+    @Param({"1000", "100000"})
+    public int size;
+    @Param({"1", "4"})
+    public int threads;
+    private ForkJoinPool pool;
+    private Workloads.Workload operation;
+
+    /**
+     * Entry point
+     *
+     * @param args JMH options
+     * @throws Exception if the options are invalid or a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(HotPaths.class.getName() + "|" + CarDataLoad.class.getName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        pool = new ForkJoinPool(threads);
+        operation = Workloads.get().setup(benchmark, size, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return number of operations done, returned so the work isn't eliminated
+     * @throws Exception if a file can't be read
+     */
+    @Benchmark
+    public long run() throws Exception {
+        return operation.run();
+    }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Prepares the data of the benchmarks outside of the measurement.
+ * JMH doesn't accept benchmarks in the default package, and a named package can't refer to the default package,
+ * so the implementation, CarWorkloads, lives in the default package of this module and is registered as a service.
+ */
+public interface Workloads {
+    /**
+     * code to measure
+     */
+    interface Workload {
+        /**
+         * @return number of operations done, e.g. the number of decided rows
+         * @throws IOException if a file can't be read
+         */
+        long run() throws IOException;
+    }
+
+    /**
+     * @param name name of the benchmark
+     * @param size number of rows, ignored by carData
+     * @param pool pool with the thread count to measure, ignored by carData
+     * @return the code to measure
+     * @throws IOException if a file can't be written
+     */
+    Workload setup(String name, int size, ForkJoinPool pool) throws IOException;
+
+    /**
+     * @return the registered implementation
+     */
+    static Workloads get() {
+        Iterator<Workloads> workloads = ServiceLoader.load(Workloads.class).iterator();
+        if (!workloads.hasNext()) {
+            throw new IllegalStateException("no " + Workloads.class.getName() + " in META-INF/services");
+        }
+        return workloads.next();
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hash dictionary from the UTF-8 bytes of a name to its index, so tokens can be encoded without creating strings.
+ * <p>
+ * It uses open addressing with linear probing and is safe for concurrent lookups once it is filled.
+ */
+public class ByteDictionary {
+    private final byte[][] keys;
+    private final int[] indices; //index of the key in each slot, -1 for empty slots
+    private int size;
+
+    /**
+     * @param names names to index by their position
+     */
+    public ByteDictionary(String[] names) {
+        int capacity = Integer.highestOneBit(Math.max(names.length, 1) * 2) * 2; //load factor below 0.5
+        keys = new byte[names.length][];
+        indices = new int[capacity];
+        Arrays.fill(indices, -1);
+        for (String name : names) {
+            add(name.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @param key bytes of the name to add as next index
+     */
+    private void add(byte[] key) {
+        ByteBuffer buf = ByteBuffer.wrap(key);
+        if (get(buf, 0, key.length) >= 0) {
+            throw new IllegalArgumentException("duplicate name \"" + new String(key, StandardCharsets.UTF_8) + "\"");
+        }
+        keys[size] = key;
+        int slot = hash(buf, 0, key.length) & (indices.length - 1);
+        while (indices[slot] >= 0) {
+            slot = (slot + 1) & (indices.length - 1);
+        }
+        indices[slot] = size++;
+    }
+
+    /**
+     * looks the name up with absolute indexes, so a memory-mapped file doesn't have to be copied to the heap first
+     *
+     * @param buf  bytes containing the name
+     * @param from index of the first byte of the name
+     * @param to   index after the last byte of the name
+     * @return index of the name, -1 if it is unknown
+     */
+    public int get(ByteBuffer buf, int from, int to) {
+        int slot = hash(buf, from, to) & (indices.length - 1);
+        int index;
+        while ((index = indices[slot]) >= 0) {
+            if (equals(keys[index], buf, from, to)) {
+                return index;
+            }
+            slot = (slot + 1) & (indices.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of names
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int hash(ByteBuffer buf, int from, int to) {
+        int h = 0x811c9dc5; //FNV-1a
+        for (int i = from; i < to; i++) {
+            h = (h ^ buf.get(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buf, int from, int to) {
+        if (key.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buf.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * common interface of the models, which assign a class to discrete-valued attributes
+ */
+public interface Classifier {
+    /**
+     * @param attributes attributes to check, indexed like the attribute values of the model
+     * @return index of the class that fits the attributes best
+     */
+    int decide(int[] attributes);
+
+    /**
+     * decides the class of many rows at once
+     *
+     * @param rows attributes to check, one row per example
+     * @param out  array to save the class of each row
+     */
+    default void decideAll(int[][] rows, int[] out) {
+        for (int i = 0; i < rows.length; i++) {
+            out[i] = decide(rows[i]);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Flat, read-only form of a trained decision tree used for fast classification.
+ * <p>
+ * The nodes are stored in breadth-first order in parallel int arrays, so the children of a node are contiguous
+ * and classifying a row is a simple loop over array indices.
+ * Unlike the node objects of DecisionTree, it does not reference any training examples.
+ */
+public class CompiledTree implements Classifier {
+    final int[] attribute; //attribute of an internal node, -1 for leaves
+    final int[] childOffset; //index of the first child of an internal node
+    final int[] leafClass; //class of a leaf
+    final int[] valueCount; //number of values of each attribute
+
+    /**
+     * @param attribute   attribute of each internal node, -1 for leaves
+     * @param childOffset index of the first child of each internal node
+     * @param leafClass   class of each leaf
+     * @param valueCount  number of values of each attribute
+     */
+    CompiledTree(int[] attribute, int[] childOffset, int[] leafClass, int[] valueCount) {
+        this.attribute = attribute;
+        this.childOffset = childOffset;
+        this.leafClass = leafClass;
+        this.valueCount = valueCount;
+    }
+
+    /**
+     * @param attributes attributes to check
+     * @return class
+     * @throws IllegalArgumentException if a checked attribute has no valid value
+     */
+    @Override
+    public int decide(int[] attributes) {
+        int n = 0;
+        int a;
+        while ((a = attribute[n]) >= 0) {
+            int value = attributes[a];
+            if (value < 0 || value >= valueCount[a]) { //would silently lead to a child of another node
+                throw new IllegalArgumentException("value " + value + " of attribute " + a + " is out of range");
+            }
+            n = childOffset[n] + value;
+        }
+        return leafClass[n];
+    }
+
+    /**
+     * @return number of nodes of the tree
+     */
+    public int size() {
+        return attribute.length;
+    }
+}
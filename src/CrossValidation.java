@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Stratified k-fold cross-validation of the classifiers.
+ * <p>
+ * The folds are trained and scored in parallel. All of them work on the same encoded data,
+ * each fold only holds the indexes of its training and test examples.
+ */
+public class CrossValidation {
+
+    /**
+     * builds a model out of a subset of the examples
+     */
+    public interface Trainer {
+        /**
+         * @param data attribute values followed by the class, one row per example, must not be modified
+         * @param rows indexes of the examples to train on
+         * @return trained model
+         */
+        Classifier train(int[][] data, int[] rows);
+    }
+
+    /**
+     * @param schema classes and attributes of the data
+     * @return trainer for decision trees built by ID3
+     */
+    public static Trainer decisionTree(LoadC4_5.Schema schema) {
+        return (data, rows) -> {
+            DecisionTree d = new DecisionTree(schema.classes, schema.attributes, data, schema.attributeNames);
+            d.ID3(rows);
+            return d.compile();
+        };
+    }
+
+    /**
+     * @param schema classes and attributes of the data
+     * @return trainer for naive bayes classifiers
+     */
+    public static Trainer naiveBayes(LoadC4_5.Schema schema) {
+        return (data, rows) -> {
+            NaiveBayes naiveBayes = new NaiveBayes(schema.classes, schema.attributes, schema.attributeNames);
+            naiveBayes.learnAll(data, rows);
+            return naiveBayes;
+        };
+    }
+
+    /**
+     * @param schema             classes and attributes of the data
+     * @param treeCount          number of trees
+     * @param attributesPerSplit number of attributes considered at each split, 0 for all
+     * @param seed               seed of the bootstrap samples and the attribute choices
+     * @param pool               pool, which trains the trees and votes, usually the one of crossValidate
+     * @return trainer for random forests
+     */
+    public static Trainer randomForest(LoadC4_5.Schema schema, int treeCount, int attributesPerSplit, long seed,
+                                       ForkJoinPool pool) {
+        return (data, rows) -> new RandomForest(schema, data, rows, treeCount, attributesPerSplit, seed, pool);
+    }
+
+    /**
+     * outcome of a cross-validation
+     */
+    public static class Result {
+        int[][][] foldConfusionMatrices; //per fold: count of test examples by real class (rows) and estimated class (columns)
+        int[][] confusionMatrix; //sum over all folds
+        long[] trainNanos;
+        long[] testNanos;
+
+        /**
+         * @return fraction of correctly classified test examples over all folds
+         */
+        public double getAccuracy() {
+            long correct = 0;
+            long all = 0;
+            for (int i = 0; i < confusionMatrix.length; i++) {
+                for (int j = 0; j < confusionMatrix[i].length; j++) {
+                    all += confusionMatrix[i][j];
+                    if (i == j) {
+                        correct += confusionMatrix[i][j];
+                    }
+                }
+            }
+            return correct / (double) all;
+        }
+
+        /**
+         * @param fold index of the fold
+         * @return fraction of correctly classified test examples of the fold
+         */
+        public double getAccuracy(int fold) {
+            long correct = 0;
+            long all = 0;
+            int[][] m = foldConfusionMatrices[fold];
+            for (int i = 0; i < m.length; i++) {
+                for (int j = 0; j < m[i].length; j++) {
+                    all += m[i][j];
+                    if (i == j) {
+                        correct += m[i][j];
+                    }
+                }
+            }
+            return correct / (double) all;
+        }
+
+        public int[][] getConfusionMatrix() {
+            return confusionMatrix;
+        }
+
+        public int[][][] getFoldConfusionMatrices() {
+            return foldConfusionMatrices;
+        }
+
+        public long[] getTrainNanos() {
+            return trainNanos;
+        }
+
+        public long[] getTestNanos() {
+            return testNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("accuracy: ").append(getAccuracy()).append('\n');
+            sb.append("rows: real class, columns: estimated class\n");
+            for (int[] row : confusionMatrix) {
+                sb.append(Arrays.toString(row)).append('\n');
+            }
+            for (int i = 0; i < trainNanos.length; i++) {
+                sb.append("fold ").append(i).append(": accuracy ").append(getAccuracy(i))
+                        .append(", training ").append(trainNanos[i] / 1000000.0).append(" ms")
+                        .append(", testing ").append(testNanos[i] / 1000000.0).append(" ms\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * entry point, cross-validates ID3 and naive bayes on the car data
+     *
+     * @param args optional number of folds
+     */
+    public static void main(String[] args) {
+        LoadC4_5.CarData carData = new LoadC4_5.CarData();
+        int k = 10;
+        if (args.length > 0 && args[0].chars().allMatch(Character::isDigit)) {
+            k = Integer.parseInt(args[0]);
+        }
+        System.out.println("Decision Tree (ID3):");
+        System.out.println(crossValidate(decisionTree(carData), carData.trainingData, carData.classes.length, k, 0, ForkJoinPool.commonPool()));
+        System.out.println("Naive Bayes:");
+        System.out.println(crossValidate(naiveBayes(carData), carData.trainingData, carData.classes.length, k, 0, ForkJoinPool.commonPool()));
+    }
+
+    /**
+     * splits the examples into k folds, so that every class is spread evenly over the folds
+     *
+     * @param data    attribute values followed by the class, one row per example
+     * @param classes number of classes
+     * @param k       number of folds
+     * @param seed    seed for shuffling the examples
+     * @return indexes of the examples of each fold
+     */
+    public static int[][] stratifiedFolds(int[][] data, int classes, int k, long seed) {
+        if (k < 2 || k > data.length) {
+            throw new IllegalArgumentException("k has to be between 2 and the number of examples");
+        }
+        int classColumn = data[0].length - 1;
+        int[] countClass = new int[classes];
+        for (int[] example : data) {
+            countClass[example[classColumn]]++;
+        }
+        //sort the indexes by class and shuffle each class
+        int[] offsets = new int[classes + 1];
+        for (int c = 0; c < classes; c++) {
+            offsets[c + 1] = offsets[c] + countClass[c];
+        }
+        int[] byClass = new int[data.length];
+        int[] next = Arrays.copyOf(offsets, classes);
+        for (int i = 0; i < data.length; i++) {
+            byClass[next[data[i][classColumn]]++] = i;
+        }
+        Random random = new Random(seed);
+        for (int c = 0; c < classes; c++) {
+            for (int i = offsets[c + 1] - 1; i > offsets[c]; i--) {
+                int j = offsets[c] + random.nextInt(i - offsets[c] + 1);
+                int t = byClass[i];
+                byClass[i] = byClass[j];
+                byClass[j] = t;
+            }
+        }
+        //deal the examples to the folds like cards
+        int[][] folds = new int[k][];
+        for (int f = 0; f < k; f++) {
+            folds[f] = new int[(data.length - f + k - 1) / k];
+        }
+        for (int i = 0; i < byClass.length; i++) {
+            folds[i % k][i / k] = byClass[i];
+        }
+        return folds;
+    }
+
+    /**
+     * runs a stratified k-fold cross-validation, training and testing the folds in parallel
+     *
+     * @param trainer creates the model of each fold
+     * @param data    attribute values followed by the class, one row per example
+     * @param classes number of classes
+     * @param k       number of folds
+     * @param seed    seed for assigning the examples to the folds
+     * @param pool    pool to run the folds in
+     * @return confusion matrices, accuracy and timings
+     */
+    public static Result crossValidate(Trainer trainer, int[][] data, int classes, int k, long seed, ForkJoinPool pool) {
+        int[][] folds = stratifiedFolds(data, classes, k, seed);
+        Result result = new Result();
+        result.foldConfusionMatrices = new int[k][][];
+        result.confusionMatrix = new int[classes][classes];
+        result.trainNanos = new long[k];
+        result.testNanos = new long[k];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int f = 0; f < k; f++) {
+            int fold = f;
+            tasks.add(() -> {
+                int[] train = new int[data.length - folds[fold].length];
+                int n = 0;
+                for (int other = 0; other < k; other++) {
+                    if (other != fold) {
+                        System.arraycopy(folds[other], 0, train, n, folds[other].length);
+                        n += folds[other].length;
+                    }
+                }
+                long start = System.nanoTime();
+                Classifier model = trainer.train(data, train);
+                long trained = System.nanoTime();
+                int[][] confusionMatrix = new int[classes][classes];
+                int classColumn = data[0].length - 1;
+                for (int row : folds[fold]) {
+                    confusionMatrix[data[row][classColumn]][model.decide(data[row])]++;
+                }
+                result.testNanos[fold] = System.nanoTime() - trained;
+                result.trainNanos[fold] = trained - start;
+                result.foldConfusionMatrices[fold] = confusionMatrix;
+                return null;
+            });
+        }
+        for (Future<Void> task : pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("cross-validation was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("training or testing a fold failed", e.getCause());
+            }
+        }
+        for (int[][] m : result.foldConfusionMatrices) {
+            for (int i = 0; i < classes; i++) {
+                for (int j = 0; j < classes; j++) {
+                    result.confusionMatrix[i][j] += m[i][j];
+                }
+            }
+        }
+        return result;
+    }
+}
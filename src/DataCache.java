@@ -0,0 +1,252 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary, column-oriented cache of an encoded data set, so a .data file only has to be parsed once.
+ * <p>
+ * Layout (big-endian): magic, version, size and modification time of the source file,
+ * the class names, the attribute names and values (strings as byte count and UTF-8 bytes), the number of rows,
+ * zero padding to a multiple of 8 bytes, then one column per attribute and one for the classes.
+ * A column stores one byte per row if it has at most 256 values, two bytes if it has at most 65536, four otherwise.
+ */
+public class DataCache {
+    static final int MAGIC = 0x44434143; //"DCAC"
+    static final int VERSION = 2;
+
+    /**
+     * loads the data set from the cache, if it is up to date, and from the source file otherwise.
+     * In the latter case, the cache is (re)written.
+     *
+     * @param source .data file with the examples
+     * @param cache  cache file
+     * @param schema classes and attributes of the data set
+     * @return one row per example: the indices of the attribute values followed by the index of the class
+     * @throws IOException if the source can't be read or contains a malformed line
+     */
+    public static int[][] load(Path source, Path cache, LoadC4_5.Schema schema) throws IOException {
+        LoadC4_5.DataSet cached = null;
+        try {
+            cached = read(cache, source);
+        } catch (NoSuchFileException e) {
+            //there is no cache yet
+        } catch (IOException e) { //an outdated cache is rebuilt silently, read only throws if it is broken
+            System.err.println("Ignoring unreadable cache " + cache + ": " + e.getMessage());
+        }
+        if (cached != null && Arrays.equals(cached.classes, schema.classes) && Arrays.deepEquals(cached.attributes, schema.attributes)) {
+            return cached.trainingData;
+        }
+        int[][] data = LoadC4_5.loadData(schema, source);
+        try {
+            write(cache, new LoadC4_5.DataSet(schema, data), source);
+        } catch (IOException e) {
+            System.err.println("Could not write cache " + cache + ": " + e.getMessage());
+        }
+        return data;
+    }
+
+    /**
+     * writes an encoded data set to a cache file.
+     * The file is written next to the cache and then moved over it, because other processes may have the old one mapped.
+     *
+     * @param cache  cache file
+     * @param data   encoded data set
+     * @param source .data file the data set was loaded from
+     * @throws IOException if the cache can't be written
+     */
+    public static void write(Path cache, LoadC4_5.DataSet data, Path source) throws IOException {
+        Path temporary = temporaryFile(cache);
+        try {
+            writeColumns(temporary, data, source);
+            Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param file file in a directory
+     * @return new empty file in the same directory, so it can be moved over the given one atomically
+     * @throws IOException if the file can't be created
+     */
+    static Path temporaryFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        return Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    }
+
+    /**
+     * @param file   file to write
+     * @param data   encoded data set
+     * @param source .data file the data set was loaded from
+     * @throws IOException if the file can't be written
+     */
+    private static void writeColumns(Path file, LoadC4_5.DataSet data, Path source) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.write(header(data, data.trainingData.length, Files.size(source), Files.getLastModifiedTime(source).toMillis()));
+            for (int column = 0; column <= data.attributes.length; column++) {
+                int width = columnWidth(data, column);
+                for (int[] row : data.trainingData) {
+                    if (width == 1) {
+                        out.writeByte(row[column]);
+                    } else if (width == 2) {
+                        out.writeShort(row[column]);
+                    } else {
+                        out.writeInt(row[column]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param schema         classes and attributes of the data set
+     * @param rows           number of rows
+     * @param sourceSize     size of the source file in bytes
+     * @param sourceModified modification time of the source file in milliseconds
+     * @return everything in front of the columns, including the padding
+     * @throws IOException never, the header is written to memory
+     */
+    static byte[] header(LoadC4_5.Schema schema, int rows, long sourceSize, long sourceModified) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sourceSize);
+        out.writeLong(sourceModified);
+        writeStrings(out, schema.classes);
+        out.writeInt(schema.attributes.length);
+        for (int i = 0; i < schema.attributes.length; i++) {
+            writeString(out, schema.attributeNames[i]);
+            writeStrings(out, schema.attributes[i]);
+        }
+        out.writeInt(rows);
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param schema classes and attributes of the data set
+     * @param column index of an attribute, or the number of attributes for the class column
+     * @return bytes per row in the column
+     */
+    static int columnWidth(LoadC4_5.Schema schema, int column) {
+        int values = column < schema.attributes.length ? schema.attributes[column].length : schema.classes.length;
+        return values <= 256 ? 1 : values <= 65536 ? 2 : 4;
+    }
+
+    /**
+     * @param b     buffer to write to
+     * @param width bytes per row of the column
+     * @param value index of a value of the column
+     */
+    static void put(ByteBuffer b, int width, int value) {
+        if (width == 1) {
+            b.put((byte) value);
+        } else if (width == 2) {
+            b.putShort((short) value);
+        } else {
+            b.putInt(value);
+        }
+    }
+
+    /**
+     * @param b     buffer to read from
+     * @param width bytes per row of the column
+     * @return index of a value of the column
+     */
+    static int get(ByteBuffer b, int width) {
+        if (width == 1) {
+            return b.get() & 0xFF;
+        } else if (width == 2) {
+            return b.getShort() & 0xFFFF;
+        }
+        return b.getInt();
+    }
+
+    /**
+     * maps a cache file into memory and decodes it
+     *
+     * @param cache  cache file
+     * @param source .data file the cache was created from
+     * @return the cached data set, or null if it was written by another version or the source changed since
+     * @throws IOException if the cache can't be read or is corrupt
+     */
+    public static LoadC4_5.DataSet read(Path cache, Path source) throws IOException {
+        MappedByteBuffer b;
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("cache file is too large to be mapped");
+            }
+            b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (b.getInt() != MAGIC) {
+                throw new IOException("not a data cache file");
+            }
+            if (b.getInt() != VERSION || b.getLong() != Files.size(source) || b.getLong() != Files.getLastModifiedTime(source).toMillis()) {
+                return null;
+            }
+            String[] classes = readStrings(b);
+            String[][] attributes = new String[b.getInt()][];
+            String[] attributeNames = new String[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                attributeNames[i] = readString(b);
+                attributes[i] = readStrings(b);
+            }
+            int[][] rows = new int[b.getInt()][attributes.length + 1];
+            while (b.position() % 8 != 0) {
+                b.get();
+            }
+            LoadC4_5.DataSet data = new LoadC4_5.DataSet(classes, attributes, attributeNames, rows);
+            for (int column = 0; column <= attributes.length; column++) {
+                int width = columnWidth(data, column);
+                for (int[] row : rows) {
+                    row[column] = get(b, width);
+                }
+            }
+            return data;
+        } catch (RuntimeException e) { //BufferUnderflowException, NegativeArraySizeException, ...
+            throw new IOException("corrupt data cache file", e);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String[] readStrings(ByteBuffer b) {
+        String[] result = new String[b.getInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readString(b);
+        }
+        return result;
+    }
+
+    private static String readString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
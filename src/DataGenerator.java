@@ -0,0 +1,438 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Reproducible synthetic data sets: Gaussian blobs for k-means and categorical examples for the classifiers.
+ * <p>
+ * The rows are generated in blocks of BLOCK_ROWS rows in parallel. Each block has its own SplittableRandom,
+ * split off from the seed in block order, so the same seed always gives the same rows,
+ * no matter how many threads are used and whether the rows end up in memory or in a file.
+ */
+public class DataGenerator {
+    static final int BLOCK_ROWS = 1 << 16;
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param seed seed of all random choices
+     * @param pool pool, which generates the blocks
+     */
+    public DataGenerator(long seed, ForkJoinPool pool) {
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    /**
+     * Entry point
+     *
+     * @param args "blobs" file rows centers dimensions [seed]: writes raw big-endian doubles, see MiniBatchKMeans.mappedPoints,
+     *             or "categorical" names data rows [seed]: writes a .data file with a random naive Bayes model
+     *             of the schema and a matching data cache next to it
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 5 && args[0].equals("blobs")) {
+            DataGenerator generator = new DataGenerator(args.length > 5 ? Long.parseLong(args[5]) : 0, ForkJoinPool.commonPool());
+            int dimensions = Integer.parseInt(args[4]);
+            double[] centers = generator.blobCenters(Integer.parseInt(args[3]), dimensions, 10);
+            generator.writeBlobs(Paths.get(args[1]), centers, dimensions, 1, Long.parseLong(args[2]));
+        } else if (args.length >= 4 && args[0].equals("categorical")) {
+            DataGenerator generator = new DataGenerator(args.length > 4 ? Long.parseLong(args[4]) : 0, ForkJoinPool.commonPool());
+            Path data = Paths.get(args[2]);
+            generator.writeCategorical(data, Paths.get(args[2] + ".cache"),
+                    LoadC4_5.Schema.readNames(Paths.get(args[1])), Long.parseLong(args[3]));
+        } else {
+            System.err.println("usage: DataGenerator blobs <file> <rows> <centers> <dimensions> [seed]");
+            System.err.println("       DataGenerator categorical <names> <data> <rows> [seed]");
+        }
+    }
+
+    /**
+     * @param count      number of centers
+     * @param dimensions number of coordinates of each center
+     * @param boundary   the coordinates are uniformly distributed between -boundary and boundary
+     * @return coordinates of the centers, row-major
+     */
+    public double[] blobCenters(int count, int dimensions, double boundary) {
+        SplittableRandom random = new SplittableRandom(~seed); //independent of the streams of the blocks
+        double[] centers = new double[arrayLength(count, dimensions)];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = (random.nextDouble() * 2 - 1) * boundary;
+        }
+        return centers;
+    }
+
+    /**
+     * @param centers    coordinates of the centers of the blobs, row-major
+     * @param dimensions number of coordinates of each point
+     * @param deviation  standard deviation of the points around their center
+     * @param rows       number of points
+     * @return coordinates of the points, row-major, each belonging to a uniformly chosen center
+     */
+    public double[] blobs(double[] centers, int dimensions, double deviation, int rows) {
+        double[] points = new double[arrayLength(rows, dimensions)];
+        forEachBlock(rows, (block, random) -> {
+            int from = block * BLOCK_ROWS;
+            int to = (int) Math.min(rows, (long) from + BLOCK_ROWS);
+            for (int i = from; i < to; i++) {
+                blobPoint(random, centers, dimensions, deviation, points, i * dimensions);
+            }
+        });
+        return points;
+    }
+
+    /**
+     * writes the points of blobs as raw big-endian doubles, row-major, without the centers they belong to.
+     * The file can be larger than the memory.
+     *
+     * @param file       output file
+     * @param centers    coordinates of the centers of the blobs, row-major
+     * @param dimensions number of coordinates of each point
+     * @param deviation  standard deviation of the points around their center
+     * @param rows       number of points
+     * @throws IOException if the file can't be written
+     */
+    public void writeBlobs(Path file, double[] centers, int dimensions, double deviation, long rows) throws IOException {
+        long rowBytes = 8L * dimensions;
+        arrayLength(Math.min(BLOCK_ROWS, rows), rowBytes); //a block is written from one buffer, checked before the file is created
+        if (rowBytes != 0 && rows > Long.MAX_VALUE / rowBytes) {
+            throw new IllegalArgumentException(rows + " rows of " + dimensions + " doubles don't fit into a file");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            forEachBlock(rows, (block, random) -> {
+                long from = (long) block * BLOCK_ROWS;
+                int count = (int) Math.min(BLOCK_ROWS, rows - from);
+                double[] point = new double[dimensions];
+                ByteBuffer buffer = ByteBuffer.allocate((int) (count * rowBytes));
+                for (int i = 0; i < count; i++) {
+                    blobPoint(random, centers, dimensions, deviation, point, 0);
+                    for (double x : point) {
+                        buffer.putDouble(x);
+                    }
+                }
+                buffer.flip();
+                writeFully(channel, buffer, from * rowBytes);
+            });
+        } catch (RuntimeException e) {
+            throw ioCause(e);
+        }
+    }
+
+    /**
+     * @param schema classes and attributes
+     * @param rows   number of examples
+     * @return one row per example: the indices of the attribute values followed by the index of the class,
+     * drawn from a random naive Bayes model of the schema
+     */
+    public int[][] categorical(LoadC4_5.Schema schema, int rows) {
+        double[][][] model = categoricalModel(schema);
+        int[][] result = new int[rows][];
+        forEachBlock(rows, (block, random) -> {
+            int from = block * BLOCK_ROWS;
+            int to = (int) Math.min(rows, (long) from + BLOCK_ROWS);
+            for (int i = from; i < to; i++) {
+                result[i] = categoricalRow(random, model);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * writes the rows of categorical as a .data file and, if a cache is given, also in the format of DataCache,
+     * so DataCache.load doesn't have to parse the .data file. The files can be larger than the memory.
+     *
+     * @param data   .data file
+     * @param cache  data cache file, null for none
+     * @param schema classes and attributes
+     * @param rows   number of examples
+     * @throws IOException if a file can't be written
+     */
+    public void writeCategorical(Path data, Path cache, LoadC4_5.Schema schema, long rows) throws IOException {
+        if (cache != null && rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a data cache can hold at most " + Integer.MAX_VALUE + " rows");
+        }
+        if (cache == null) {
+            writeCategoricalFiles(data, null, schema, rows);
+            return;
+        }
+        Path temporary = DataCache.temporaryFile(cache); //moved over the cache, which others may have mapped
+        try {
+            writeCategoricalFiles(data, temporary, schema, rows);
+            Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param data   .data file
+     * @param cache  existing file to write the data cache to, null for none
+     * @param schema classes and attributes
+     * @param rows   number of examples
+     * @throws IOException if a file can't be written
+     */
+    private void writeCategoricalFiles(Path data, Path cache, LoadC4_5.Schema schema, long rows) throws IOException {
+        double[][][] model = categoricalModel(schema);
+        byte[][][] names = new byte[schema.attributes.length + 1][][]; //UTF-8 names of the values of each column
+        for (int a = 0; a <= schema.attributes.length; a++) {
+            String[] values = a < schema.attributes.length ? schema.attributes[a] : schema.classes;
+            names[a] = new byte[values.length][];
+            for (int v = 0; v < values.length; v++) {
+                names[a][v] = values[v].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        int headerSize = cache == null ? 0 : DataCache.header(schema, (int) rows, 0, 0).length;
+        long[] columnStart = new long[schema.attributes.length + 1];
+        for (int a = 1; a < columnStart.length; a++) {
+            columnStart[a] = columnStart[a - 1] + rows * DataCache.columnWidth(schema, a - 1);
+        }
+        int blocks = (int) ((rows + BLOCK_ROWS - 1) / BLOCK_ROWS);
+        SplittableRandom[] randoms = blockRandoms(blocks);
+        int batch = 4 * pool.getParallelism(); //blocks, which are held in memory at once
+        try (FileChannel channel = cache == null ? null : FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(data), 1 << 20)) {
+                for (int first = 0; first < blocks; first += batch) {
+                    int start = first;
+                    byte[][] text = new byte[Math.min(batch, blocks - first)][];
+                    parallelFor(text.length, b -> {
+                        long from = (long) (start + b) * BLOCK_ROWS;
+                        int count = (int) Math.min(BLOCK_ROWS, rows - from);
+                        int[][] block = new int[count][];
+                        for (int i = 0; i < count; i++) {
+                            block[i] = categoricalRow(randoms[start + b], model);
+                        }
+                        text[b] = toText(block, names);
+                        if (channel != null) {
+                            for (int a = 0; a < columnStart.length; a++) {
+                                int width = DataCache.columnWidth(schema, a);
+                                ByteBuffer buffer = ByteBuffer.allocate(count * width);
+                                for (int[] row : block) {
+                                    DataCache.put(buffer, width, row[a]);
+                                }
+                                buffer.flip();
+                                writeFully(channel, buffer, headerSize + columnStart[a] + from * width);
+                            }
+                        }
+                    });
+                    for (byte[] t : text) {
+                        out.write(t);
+                    }
+                }
+            }
+            if (channel != null) { //the header needs the final size and modification time of the .data file
+                byte[] header = DataCache.header(schema, (int) rows, Files.size(data), Files.getLastModifiedTime(data).toMillis());
+                writeFully(channel, ByteBuffer.wrap(header), 0);
+            }
+        } catch (RuntimeException e) {
+            throw ioCause(e);
+        }
+    }
+
+    /**
+     * draws class priors and the value distributions per class and attribute uniformly from all distributions
+     *
+     * @param schema classes and attributes
+     * @return cumulative distributions: model[0][0] of the classes, model[1 + a][c] of attribute a given class c
+     */
+    private double[][][] categoricalModel(LoadC4_5.Schema schema) {
+        SplittableRandom random = new SplittableRandom(~seed); //independent of the streams of the blocks
+        double[][][] model = new double[schema.attributes.length + 1][schema.classes.length][];
+        model[0] = new double[][]{cumulativeDistribution(random, schema.classes.length)};
+        for (int a = 0; a < schema.attributes.length; a++) {
+            for (int c = 0; c < schema.classes.length; c++) {
+                model[a + 1][c] = cumulativeDistribution(random, schema.attributes[a].length);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @param random source of the random choices
+     * @param size   number of outcomes
+     * @return cumulative probabilities of a distribution drawn uniformly from all distributions over the outcomes
+     */
+    private static double[] cumulativeDistribution(SplittableRandom random, int size) {
+        double[] result = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += -Math.log(1 - random.nextDouble()); //exponentially distributed, normalized they are Dirichlet(1, ..., 1)
+            result[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            result[i] /= sum;
+        }
+        return result;
+    }
+
+    /**
+     * @param random     source of the random choices
+     * @param cumulative cumulative probabilities
+     * @return drawn outcome
+     */
+    private static int sample(SplittableRandom random, double[] cumulative) {
+        double u = random.nextDouble();
+        int i = 0;
+        while (i < cumulative.length - 1 && cumulative[i] <= u) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int[] categoricalRow(SplittableRandom random, double[][][] model) {
+        int[] row = new int[model.length];
+        int c = sample(random, model[0][0]);
+        for (int a = 1; a < model.length; a++) {
+            row[a - 1] = sample(random, model[a][c]);
+        }
+        row[model.length - 1] = c;
+        return row;
+    }
+
+    private static void blobPoint(SplittableRandom random, double[] centers, int dimensions, double deviation,
+                                  double[] point, int from) {
+        int center = random.nextInt(centers.length / dimensions) * dimensions;
+        for (int j = 0; j < dimensions; j++) {
+            point[from + j] = centers[center + j] + nextGaussian(random) * deviation;
+        }
+    }
+
+    /**
+     * SplittableRandom has no nextGaussian, this is the Box-Muller transform
+     *
+     * @param random source of the random numbers
+     * @return standard normally distributed number
+     */
+    private static double nextGaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble(); //never 0
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * @param rows  encoded examples
+     * @param names UTF-8 names of the values of each column
+     * @return the lines of a .data file
+     */
+    private static byte[] toText(int[][] rows, byte[][][] names) {
+        int length = 0;
+        for (int[] row : rows) {
+            for (int a = 0; a < row.length; a++) {
+                length += names[a][row[a]].length + 1;
+            }
+        }
+        byte[] text = new byte[length];
+        int p = 0;
+        for (int[] row : rows) {
+            for (int a = 0; a < row.length; a++) {
+                byte[] name = names[a][row[a]];
+                System.arraycopy(name, 0, text, p, name.length);
+                p += name.length;
+                text[p++] = (byte) (a < row.length - 1 ? ',' : '\n');
+            }
+        }
+        return text;
+    }
+
+    /**
+     * body of a parallel loop, which may write to a file
+     */
+    private interface Body {
+        void run(int i) throws IOException;
+    }
+
+    /**
+     * body of a block, which gets its own source of random numbers
+     */
+    private interface Block {
+        void generate(int block, SplittableRandom random) throws IOException;
+    }
+
+    /**
+     * @param blocks number of blocks
+     * @return one source of random numbers per block, split off in block order
+     */
+    private SplittableRandom[] blockRandoms(int blocks) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            randoms[b] = root.split();
+        }
+        return randoms;
+    }
+
+    /**
+     * runs the body for all blocks of the rows in parallel
+     *
+     * @param rows number of rows
+     * @param body body of a block, an IOException gets thrown wrapped in an UncheckedIOException
+     */
+    private void forEachBlock(long rows, Block body) {
+        SplittableRandom[] randoms = blockRandoms((int) ((rows + BLOCK_ROWS - 1) / BLOCK_ROWS));
+        parallelFor(randoms.length, b -> body.generate(b, randoms[b]));
+    }
+
+    /**
+     * runs the body for 0 to n - 1 in parallel in the pool
+     *
+     * @param n    number of iterations
+     * @param body body of the loop, an IOException gets thrown wrapped in an UncheckedIOException
+     */
+    private void parallelFor(int n, Body body) {
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+            try {
+                body.run(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        })).join();
+    }
+
+    /**
+     * ForkJoinTask.join may wrap the exception of a task once more, so the whole cause chain is searched
+     *
+     * @param e exception of a parallel loop
+     * @return the IOException, which caused it
+     * @throws RuntimeException e itself, if it wasn't caused by an IOException
+     */
+    private static IOException ioCause(RuntimeException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return (IOException) t;
+            }
+        }
+        throw e;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @param rows    number of rows
+     * @param columns values per row
+     * @return number of values of all rows
+     * @throws IllegalArgumentException if they don't fit into one array
+     */
+    private static int arrayLength(long rows, long columns) {
+        try {
+            return Math.toIntExact(Math.multiplyExact(rows, columns));
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(rows + " rows of " + columns + " values don't fit into an array", e);
+        }
+    }
+}
@@ -1,9 +1,26 @@
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.SplittableRandom;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class tries to build a decision tree out of training examples.
@@ -12,7 +29,9 @@ import java.util.Stack;
  * The most important methods are:
  * <ul>
  * <li>public void ID3()</li>
+ * <li>public void ID3(ForkJoinPool, int)</li>
  * <li>private double getEntropy(*)</li>
+ * <li>private int[] getCountTable(*)</li>
  * <li>private double getInformationGain(*)</li>
  * <li>private Node getNodeWithMostGain(*)</li>
  * </ul>
@@ -20,12 +39,23 @@ import java.util.Stack;
  * <p>
  * written by Maximilian Deubel
  */
-public class DecisionTree {
+public class DecisionTree implements Classifier {
+    private static final double MIN_GAIN = 1e-12; //smaller gains are rounding errors, e.g. of an attribute already split on
     private String[] classes;
-    private String[][] attributes;
+    private String[][] attributes; //null for a continuous attribute
     private String[] attributeNames;
     private Node root;
     private int[][] trainingData;
+    private double[][] continuousData; //values of each continuous attribute by training example, null for the others
+    private int[] valueOffsets; //offset of the first value of each attribute in a count table
+    private int valueCount; //total number of attribute values
+    private int[] order; //indexes of the training examples, each node owns the slice of the examples reaching it
+    private int[] scratch; //buffer for partitioning the slices, only used while building
+    private int[][] sorted; //per continuous attribute: order with each slice sorted by the value, only used while building
+    private boolean retainExamples; //whether order is kept after building
+    private int[] weights; //count of each training example, null if every example counts once, only used while building
+    private int attributesPerSplit; //attributes considered at each split, 0 for all
+    private long samplingSeed; //seed of the choice of the attributes considered at each split
 
     /**
      * initializes a new decision tree
@@ -36,13 +66,75 @@ public class DecisionTree {
      * @param attributeNames names of the attributes
      */
     public DecisionTree(String[] classes, String[][] attributes, int[][] trainingData, String[] attributeNames) {
+        this(classes, attributes, trainingData, null, attributeNames);
+    }
+
+    /**
+     * initializes a new decision tree, which can split continuous attributes at a threshold
+     *
+     * @param classes        classes to assign to the input
+     * @param attributes     values of each attribute to decide on, null for a continuous attribute
+     * @param trainingData   training examples for building the tree, the columns of continuous attributes are ignored
+     * @param continuousData values of each continuous attribute by training example, null for the other attributes
+     * @param attributeNames names of the attributes
+     */
+    public DecisionTree(String[] classes, String[][] attributes, int[][] trainingData, double[][] continuousData, String[] attributeNames) {
         this.classes = classes;
         this.attributes = attributes;
         this.trainingData = trainingData;
+        this.continuousData = continuousData;
         this.attributeNames = attributeNames;
+        this.valueOffsets = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            valueOffsets[i] = valueCount;
+            if (attributes[i] != null) {
+                valueCount += attributes[i].length;
+            } else if (trainingData != null && (continuousData == null || continuousData[i] == null)) {
+                throw new IllegalArgumentException("missing values of the continuous attribute " + attributeNames[i]);
+            }
+        }
     }
 
+    /**
+     * By default only the class distribution of each node is kept after the tree is built,
+     * the indexes of the training examples reaching the nodes are released.
+     *
+     * @param retainExamples whether the training examples of the nodes are kept for getExamples
+     */
+    public void setRetainExamples(boolean retainExamples) {
+        this.retainExamples = retainExamples;
+    }
+
+    /**
+     * For random forests: each split only considers a random subset of the attributes.
+     * If none of them separates the examples, further random attributes are tried.
+     * The choice of the attributes depends only on the seed, also if the tree is built in parallel.
+     *
+     * @param attributesPerSplit number of attributes to consider at each split, 0 for all
+     * @param seed               seed of the random choices
+     */
+    public void setAttributeSampling(int attributesPerSplit, long seed) {
+        this.attributesPerSplit = attributesPerSplit;
+        this.samplingSeed = seed;
+    }
 
+    /**
+     * only available if setRetainExamples(true) was called before building the tree
+     *
+     * @param attributes attributes to decide on
+     * @return indexes of the training examples, which reach the same leaf as the given attributes
+     */
+    public int[] getExamples(int[] attributes) {
+        if (order == null) {
+            throw new IllegalStateException("the training examples were not retained, see setRetainExamples");
+        }
+        Node node = root;
+        while (node.getClass() == InternalNode.class) {
+            InternalNode internal = (InternalNode) node;
+            node = internal.children[internal.branch(attributes[internal.my_attribute])];
+        }
+        return Arrays.copyOfRange(order, node.from, node.to);
+    }
 
     /**
      * entry point
@@ -57,14 +149,16 @@ public class DecisionTree {
         d.ID3(); //run ID3 algorithm to build up the tree
         System.out.println("Writing XML File...");
         try (BufferedWriter writer = new BufferedWriter(new FileWriter("car_tree.xml"))) {
-            writer.write(d.toXML());
+            d.writeXML(writer);
             writer.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
         System.out.println("Checking Test Examples...");
-        for (int[] aTrainingData : carData.trainingData) {
-            if (d.decide(aTrainingData) != aTrainingData[carData.attributes.length])
+        int[] decisions = new int[carData.trainingData.length];
+        d.compile().decideAll(carData.trainingData, decisions);
+        for (int i = 0; i < decisions.length; i++) {
+            if (decisions[i] != carData.trainingData[i][carData.attributes.length])
                 System.out.println("failed");
         }
     }
@@ -72,23 +166,27 @@ public class DecisionTree {
     /**
      * uses the decision tree to decide which class fits the attributes best
      *
-     * @param attributes attributes to check
+     * @param attributes attributes to check, continuous attributes are compared with the thresholds as they are
      * @return class
      */
+    @Override
     public int decide(int[] attributes) {
         return root.getClass_(attributes);
     }
 
     /**
-     * @param chosenOnes set of training examples (indexes) to reach this node
-     * @return entropy of the given set
+     * uses the decision tree to decide which class fits the attributes best
+     *
+     * @param attributes attributes to check: the values of continuous attributes, the value indexes of the others
+     * @return class
      */
-    private double getEntropy(ArrayList<Integer> chosenOnes) {
-        int[] classDistribution = new int[classes.length];
-        for (int i = 0; i < chosenOnes.size(); i++) {
-            classDistribution[trainingData[chosenOnes.get(i)][trainingData[i].length - 1]]++;
+    public int decide(double[] attributes) {
+        Node node = root;
+        while (node.getClass() == InternalNode.class) {
+            InternalNode internal = (InternalNode) node;
+            node = internal.children[internal.branch(attributes[internal.my_attribute])];
         }
-        return getEntropy(classDistribution, chosenOnes.size());
+        return ((LeafNode) node).my_class;
     }
 
     /**
@@ -97,9 +195,22 @@ public class DecisionTree {
      * @return entropy of the given set
      */
     private double getEntropy(int[] classDistribution, int size) {
+        return getEntropy(classDistribution, 0, size);
+    }
+
+    /**
+     * @param counts class counts, possibly a row of a count table
+     * @param from   index of the first class count in counts
+     * @param size   total instances
+     * @return entropy of the given set
+     */
+    private double getEntropy(int[] counts, int from, int size) {
         double result = 0;
-        for (int i : classDistribution) {
-            double a = i / (double) size;
+        if (size == 0) { //an empty set is perfectly classified
+            return result;
+        }
+        for (int i = from; i < from + classes.length; i++) {
+            double a = counts[i] / (double) size;
             if (a != 0) {
                 result -= a * Math.log(a) / Math.log(classes.length);
             }
@@ -108,99 +219,516 @@ public class DecisionTree {
     }
 
     /**
-     * @param chosenOnes      set of training examples (indexes)
+     * counts the given training examples by attribute value and class in a single pass
+     *
+     * @param from first position of the training examples in order
+     * @param to   position after the last training example
+     * @return flat table, the count of value v of attribute a and class c is at (valueOffsets[a] + v) * classes.length + c
+     */
+    private int[] getCountTable(int from, int to) {
+        int[] counts = new int[valueCount * classes.length];
+        for (int i = from; i < to; i++) {
+            int[] example = trainingData[order[i]];
+            int c = example[attributes.length];
+            int w = weights == null ? 1 : weights[order[i]];
+            for (int a = 0; a < attributes.length; a++) {
+                if (attributes[a] != null) {
+                    counts[(valueOffsets[a] + example[a]) * classes.length + c] += w;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param counts          count table of the training examples (see getCountTable)
+     * @param size            number of training examples
      * @param attribute       attribute, on which the information gain is calculated
-     * @param entropyOfChosen entropy of chosenOnes
+     * @param entropyOfChosen entropy of the training examples
      * @return information gain of the given training examples with respect of a particular attribute
      */
-    private double getInformationGain(ArrayList<Integer> chosenOnes, int attribute, double entropyOfChosen) {
+    private double getInformationGain(int[] counts, int size, int attribute, double entropyOfChosen) {
         double result = entropyOfChosen;
-        ArrayList<ArrayList<Integer>> chosenbyAttribute = seperateByAttribute(chosenOnes, attribute);
-        for (ArrayList<Integer> chosen : chosenbyAttribute) {
-            result -= getEntropy(chosen) * chosen.size() / chosenOnes.size();
+        for (int v = 0; v < attributes[attribute].length; v++) {
+            int from = (valueOffsets[attribute] + v) * classes.length;
+            int sizeOfValue = 0;
+            for (int c = from; c < from + classes.length; c++) {
+                sizeOfValue += counts[c];
+            }
+            if (sizeOfValue > 0) {
+                result -= getEntropy(counts, from, sizeOfValue) * sizeOfValue / size;
+            }
         }
         return result;
     }
 
     /**
-     * @param chosenOnes set of training examples (indexes)
-     * @param attribute  attribute to seperate the examples on
-     * @return an ArrayList of the separated sets according to the value of the given attribute
+     * finds the best threshold of a continuous attribute with one sweep over the examples sorted by its value
+     *
+     * @param from            first position of the training examples in order
+     * @param to              position after the last training example
+     * @param attribute       continuous attribute
+     * @param distribution    class distribution of the training examples
+     * @param size            number of training examples
+     * @param entropyOfChosen entropy of the training examples
+     * @return information gain and threshold of the best split, gain 0 if there is none
+     */
+    private double[] getBestThreshold(int from, int to, int attribute, int[] distribution, int size, double entropyOfChosen) {
+        int[] examples = sorted[attribute];
+        double[] values = continuousData[attribute];
+        int[] below = new int[classes.length]; //class distribution of the examples up to the current one
+        int[] above = distribution.clone();
+        int sizeBelow = 0;
+        double[] best = {0, Double.NaN};
+        for (int i = from; i < to - 1; i++) {
+            int e = examples[i];
+            int w = weights == null ? 1 : weights[e];
+            int c = trainingData[e][attributes.length];
+            below[c] += w;
+            above[c] -= w;
+            sizeBelow += w;
+            double value = values[e];
+            double next = values[examples[i + 1]];
+            if (value < next) { //only between different values
+                double gain = entropyOfChosen - getEntropy(below, sizeBelow) * sizeBelow / size
+                        - getEntropy(above, size - sizeBelow) * (size - sizeBelow) / size;
+                if (gain > best[0]) {
+                    double threshold = value + (next - value) / 2;
+                    best[0] = gain;
+                    best[1] = threshold < next ? threshold : value; //the middle may round up to next
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * sorts the slices of order and of the presorted continuous attributes stably by the branch of the given node,
+     * in place with the help of scratch. Different slices can be separated concurrently.
+     *
+     * @param node node, whose training examples are separated
+     * @return bounds of the separated sets: the examples of branch b are at the positions bounds[b] to bounds[b + 1]
+     */
+    private int[] seperateByBranch(InternalNode node) {
+        int[] bounds = new int[node.children.length + 1];
+        for (int i = node.from; i < node.to; i++) {
+            bounds[branch(node, order[i]) + 1]++;
+        }
+        bounds[0] = node.from;
+        for (int b = 1; b < bounds.length; b++) {
+            bounds[b] += bounds[b - 1];
+        }
+        partition(order, node, bounds);
+        for (int[] examples : sorted) {
+            if (examples != null) {
+                partition(examples, node, bounds);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @param examples slices of training examples
+     * @param node     node, whose slice is separated
+     * @param bounds   bounds of the separated sets
+     */
+    private void partition(int[] examples, InternalNode node, int[] bounds) {
+        int[] next = Arrays.copyOf(bounds, bounds.length - 1);
+        for (int i = node.from; i < node.to; i++) {
+            scratch[next[branch(node, examples[i])]++] = examples[i];
+        }
+        System.arraycopy(scratch, node.from, examples, node.from, node.to - node.from);
+    }
+
+    /**
+     * @param node    internal node
+     * @param example index of a training example
+     * @return index of the child the training example reaches
+     */
+    private int branch(InternalNode node, int example) {
+        int a = node.my_attribute;
+        return attributes[a] == null ? node.branch(continuousData[a][example]) : trainingData[example][a];
+    }
+
+    /**
+     * sorts training examples stably by their value (merge sort)
+     *
+     * @param examples indexes of training examples
+     * @param values   values by training example
      */
-    private ArrayList<ArrayList<Integer>> seperateByAttribute(ArrayList<Integer> chosenOnes, int attribute) {
-        ArrayList<ArrayList<Integer>> chosenbyAttribute = new ArrayList<>();
-        for (int i = 0; i < attributes[attribute].length; i++) {
-            chosenbyAttribute.add(new ArrayList<>());
+    private static void sortByValue(int[] examples, double[] values) {
+        int[] buffer = examples.clone();
+        mergeSort(buffer, examples, 0, examples.length, values);
+    }
+
+    /**
+     * @param source examples to sort, gets overwritten
+     * @param target gets the sorted examples, contains the same as source in the range
+     * @param from   first position to sort
+     * @param to     position after the last position to sort
+     * @param values values by training example
+     */
+    private static void mergeSort(int[] source, int[] target, int from, int to, double[] values) {
+        if (to - from < 2) {
+            return;
         }
-        for (Integer chosenOne : chosenOnes) {
-            chosenbyAttribute.get(trainingData[chosenOne][attribute]).add(chosenOne);
+        int mid = (from + to) >>> 1;
+        mergeSort(target, source, from, mid, values); //sort both halves into source
+        mergeSort(target, source, mid, to, values);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < mid && Double.compare(values[source[left]], values[source[right]]) <= 0) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
         }
-        return chosenbyAttribute;
     }
 
     /**
-     * @param chosenOnes      set of training examples (indexes)
-     * @param entropyOfChosen entropy of chosenOnes
-     * @param parent          parent node
+     * @param classDistribution array of sums of instances by class
+     * @return the most frequent class
+     */
+    private int getMajorityClass(int[] classDistribution) {
+        int max = 0;
+        for (int i = 1; i < classDistribution.length; i++) {
+            if (classDistribution[i] > classDistribution[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param from   first position of the training examples in order
+     * @param to     position after the last training example
+     * @param parent parent node
+     * @param random source of the choice of the attributes to consider, null to consider all
      * @return a new node that parts the given training examples best according to information gain
      */
-    private Node getNodeWithMostGain(ArrayList<Integer> chosenOnes, double entropyOfChosen, InternalNode parent) {
-        if (entropyOfChosen == 0) { //that means the given set is perfectly classified
-            assert trainingData.length > 0;
-            return new LeafNode(trainingData[chosenOnes.get(0)][attributes.length], chosenOnes, parent);
-        } else {
-            int max = 0;
-            double maxGain = 0;
-            for (int i = 0; i < attributes.length; i++) {
-                double gain = getInformationGain(chosenOnes, i, entropyOfChosen);
-                if (gain > maxGain) {
-                    max = i;
-                    maxGain = gain;
+    private Node getNodeWithMostGain(int from, int to, InternalNode parent, SplittableRandom random) {
+        if (from == to) { //no example reaches this node, so we fall back to the parent's decision
+            return new LeafNode(getMajorityClass(parent.classDistribution), from, to, parent);
+        }
+        LeafNode leaf = new LeafNode(trainingData[order[from]][attributes.length], from, to, parent);
+        if (leaf.entropyOfChosen == 0) { //that means the given set is perfectly classified
+            return leaf;
+        }
+        int[] counts = getCountTable(from, to);
+        int size = 0;
+        for (int count : leaf.classDistribution) {
+            size += count;
+        }
+        int[] candidates = new int[attributes.length];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = i;
+        }
+        int max = -1;
+        double maxGain = MIN_GAIN;
+        double maxThreshold = Double.NaN;
+        for (int k = 0; k < candidates.length; k++) {
+            if (random != null) { //shuffle the candidates as far as they are considered
+                if (k >= attributesPerSplit && max >= 0) {
+                    break;
                 }
+                int j = k + random.nextInt(candidates.length - k);
+                int swap = candidates[j];
+                candidates[j] = candidates[k];
+                candidates[k] = swap;
+            }
+            double gain;
+            double threshold = Double.NaN;
+            if (attributes[candidates[k]] == null) {
+                double[] best = getBestThreshold(from, to, candidates[k], leaf.classDistribution, size, leaf.entropyOfChosen);
+                gain = best[0];
+                threshold = best[1];
+            } else {
+                gain = getInformationGain(counts, size, candidates[k], leaf.entropyOfChosen);
+            }
+            if (gain > maxGain) {
+                max = candidates[k];
+                maxGain = gain;
+                maxThreshold = threshold;
             }
-            return new InternalNode(max, chosenOnes, parent);
         }
+        if (max < 0) { //no attribute separates the examples any further
+            leaf.my_class = getMajorityClass(leaf.classDistribution);
+            return leaf;
+        }
+        InternalNode node = new InternalNode(max, leaf);
+        node.threshold = maxThreshold;
+        node.random = random;
+        return node;
     }
 
     /**
      * implementation of the "ID3 Top-Down Induction" algorithm described in the lecture notes
      */
     public void ID3() {
-        //root node gets initialized
-        ArrayList<Integer> chosen = new ArrayList<>(trainingData.length);
-        for (int i = 0; i < trainingData.length; i++) {
-            chosen.add(i);
+        ID3(getAllExamples());
+    }
+
+    /**
+     * builds the tree out of a subset of the training examples
+     *
+     * @param examples indexes of the training examples to use
+     */
+    public void ID3(int[] examples) {
+        ID3(examples, null);
+    }
+
+    /**
+     * builds the tree out of weighted training examples, e.g. a bootstrap sample given by the count of each example
+     *
+     * @param examples indexes of the training examples to use
+     * @param weights  positive weight of each training example by index, null to weight every example with 1
+     */
+    public void ID3(int[] examples, int[] weights) {
+        this.weights = weights;
+        root = getRootNode(examples);
+        grow(root);
+        finishBuild();
+    }
+
+    /**
+     * parallel version of ID3, which builds independent subtrees as fork/join tasks.
+     * The resulting tree is the same as the one built by ID3().
+     *
+     * @param pool             pool to run the tasks in
+     * @param sequentialCutoff nodes reached by fewer training examples are grown sequentially
+     */
+    public void ID3(ForkJoinPool pool, int sequentialCutoff) {
+        root = getRootNode(getAllExamples());
+        pool.invoke(new GrowTask(root, sequentialCutoff));
+        finishBuild();
+    }
+
+    /**
+     * @return indexes of all training examples
+     */
+    private int[] getAllExamples() {
+        int[] examples = new int[trainingData.length];
+        for (int i = 0; i < examples.length; i++) {
+            examples[i] = i;
+        }
+        return examples;
+    }
+
+    /**
+     * @param examples indexes of the training examples to use
+     * @return root node reached by the given training examples
+     */
+    private Node getRootNode(int[] examples) {
+        if (examples.length == 0) {
+            throw new IllegalArgumentException("a tree needs at least one training example");
+        }
+        order = examples.clone();
+        scratch = new int[order.length];
+        sorted = new int[attributes.length][];
+        for (int a = 0; a < attributes.length; a++) {
+            if (attributes[a] == null) { //sorted once, the partitions keep the order
+                sorted[a] = order.clone();
+                sortByValue(sorted[a], continuousData[a]);
+            }
+        }
+        SplittableRandom random = attributesPerSplit > 0 && attributesPerSplit < attributes.length
+                ? new SplittableRandom(samplingSeed) : null;
+        return getNodeWithMostGain(0, order.length, null, random);
+    }
+
+    /**
+     * releases the buffers, which are only needed while building
+     */
+    private void finishBuild() {
+        scratch = null;
+        sorted = null;
+        weights = null;
+        if (!retainExamples) {
+            order = null;
         }
-        root = getNodeWithMostGain(chosen, getEntropy(chosen), null);
+    }
 
+    /**
+     * grows the subtree below the given node breadth-first
+     *
+     * @param start root of the subtree
+     */
+    private void grow(Node start) {
         ArrayDeque<Node> workingQueue = new ArrayDeque<>(); //queue to hold current leaves
-        workingQueue.add(root);
+        workingQueue.add(start);
         while (!workingQueue.isEmpty()) {
             if (workingQueue.peek().getClass() != (LeafNode.class)) { //if we need to generate children for the current node
                 InternalNode current = (InternalNode) workingQueue.poll();
-                for (int i = 0; i < attributes[current.my_attribute].length; i++) {
-                    ArrayList<ArrayList<Integer>> chosenbyAttribute = seperateByAttribute(current.chosenOnes, current.my_attribute);
-                    //create descendants for each value with decision attributes to maximise information gain
-                    current.children[i] = getNodeWithMostGain(chosenbyAttribute.get(i), getEntropy(chosenbyAttribute.get(i)), current);
-                    workingQueue.add(current.children[i]);
-                    //System.out.println("added Node " + current.children[i]);
-                }
+                Collections.addAll(workingQueue, expand(current));
             } else { //skip finished leaf nodes
                 workingQueue.poll();
             }
         }
     }
 
+    /**
+     * creates the children of an internal node
+     *
+     * @param current node to expand
+     * @return the children of the node
+     */
+    private Node[] expand(InternalNode current) {
+        int[] bounds = seperateByBranch(current);
+        for (int i = 0; i < current.children.length; i++) {
+            //create descendants for each value with decision attributes to maximise information gain
+            current.children[i] = getNodeWithMostGain(bounds[i], bounds[i + 1], current,
+                    current.random == null ? null : current.random.split());
+        }
+        current.random = null;
+        return current.children;
+    }
+
+    /**
+     * converts the trained decision tree to its flat form for fast classification
+     *
+     * @return compiled tree
+     */
+    public CompiledTree compile() {
+        if (root == null) {
+            throw new IllegalStateException("the tree has to be built before it can be compiled");
+        }
+        ArrayList<Node> nodes = getNodesBreadthFirst();
+        int[] attribute = new int[nodes.size()];
+        int[] childOffset = new int[nodes.size()];
+        int[] leafClass = new int[nodes.size()];
+        int nextChild = 1;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            if (n.getClass() == InternalNode.class) {
+                InternalNode internal = (InternalNode) n;
+                if (attributes[internal.my_attribute] == null) {
+                    throw new IllegalStateException("trees with continuous splits can't be compiled");
+                }
+                attribute[i] = internal.my_attribute;
+                childOffset[i] = nextChild;
+                nextChild += internal.children.length;
+            } else {
+                attribute[i] = -1;
+                leafClass[i] = ((LeafNode) n).my_class;
+            }
+        }
+        int[] valueCount = new int[attributes.length];
+        for (int a = 0; a < attributes.length; a++) {
+            valueCount[a] = attributes[a] == null ? 0 : attributes[a].length;
+        }
+        return new CompiledTree(attribute, childOffset, leafClass, valueCount);
+    }
+
+    /**
+     * @return all nodes in breadth-first order, so siblings are contiguous
+     */
+    private ArrayList<Node> getNodesBreadthFirst() {
+        ArrayList<Node> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).getClass() == InternalNode.class) {
+                Collections.addAll(nodes, ((InternalNode) nodes.get(i)).children);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * writes the decision tree in the binary format, which MappedTree can map into memory.
+     * <p>
+     * Layout (big-endian): magic, version, the class names, the attribute names and values
+     * (strings as byte count and UTF-8 bytes), zero padding to a multiple of 8 bytes, node count,
+     * then the int arrays attribute, child offset and leaf class of the compiled tree (see CompiledTree)
+     * and the class distribution of every node.
+     *
+     * @param out output, which should be buffered
+     * @throws IOException if the output fails
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        for (String[] values : attributes) {
+            if (values == null) {
+                throw new IllegalStateException("continuous attributes can't be written in the binary format");
+            }
+        }
+        CompiledTree compiled = compile();
+        ArrayList<Node> nodes = getNodesBreadthFirst();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MappedTree.MAGIC);
+        data.writeInt(MappedTree.VERSION);
+        data.writeInt(classes.length);
+        for (String c : classes) {
+            writeString(data, c);
+        }
+        data.writeInt(attributes.length);
+        for (int i = 0; i < attributes.length; i++) {
+            writeString(data, attributeNames[i]);
+            data.writeInt(attributes[i].length);
+            for (String value : attributes[i]) {
+                writeString(data, value);
+            }
+        }
+        while (data.size() % 8 != 4) { //node count + padding ends on a multiple of 8
+            data.writeByte(0);
+        }
+        data.writeInt(nodes.size());
+        for (int a : compiled.attribute) {
+            data.writeInt(a);
+        }
+        for (int offset : compiled.childOffset) {
+            data.writeInt(offset);
+        }
+        for (int c : compiled.leafClass) {
+            data.writeInt(c);
+        }
+        for (Node n : nodes) {
+            for (int count : n.classDistribution) {
+                data.writeInt(count);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * @param data output
+     * @param s    string to write as byte count and UTF-8 bytes
+     * @throws IOException if the output fails
+     */
+    private static void writeString(DataOutputStream data, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
     /**
      * converts decision tree to XML string
      *
      * @return XML string
      */
     public String toXML() {
-        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        StringWriter writer = new StringWriter();
+        try {
+            writeXML(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //a StringWriter does not throw
+        }
+        return writer.toString();
+    }
 
-        sb.append(nodeToXML(root, 0, 0)).append("\n"); //root node gets some special handling
-        if (root.getClass() == InternalNode.class) { //if the whole tree is just a leaf, we don't need a stack and tab handling at all
+    /**
+     * writes the decision tree as XML directly to the given writer
+     *
+     * @param writer output, which should be buffered
+     * @throws IOException if the writer fails
+     */
+    public void writeXML(Writer writer) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+
+        nodeToXML(writer, root, 0, 0); //root node gets some special handling
+        if (root.getClass() != InternalNode.class) { //if the whole tree is just a leaf, we don't need a stack and tab handling at all
+            writeEscaped(writer, classes[((LeafNode) root).my_class]);
+        } else {
+            writer.write('\n');
             int numtabs = 0;
             Stack<Node> working_stack = new Stack<>(); //stack to hold the leaf nodes (and closing tokens)
             Stack<Integer> attrValStack = new Stack<>(); //stack to hold the attribute values of the nodes
@@ -216,12 +744,13 @@ public class DecisionTree {
                     working_stack.pop();
                     numtabs--; //one level up
                     for (int i = 0; i < numtabs; i++) { //tab handling
-                        sb.append("\t");
+                        writer.write('\t');
                     }
-                    sb.append("</node>\n"); //insert actual closing tag
+                    writer.write("</node>\n"); //insert actual closing tag
                 } else if (working_stack.peek().getClass() == InternalNode.class) { //internal nodes have children to consider
                     InternalNode c = (InternalNode) working_stack.pop();
-                    sb.append(nodeToXML(c, attrValStack.pop(), numtabs)).append("\n");
+                    nodeToXML(writer, c, attrValStack.pop(), numtabs);
+                    writer.write('\n');
                     numtabs++; //one level down
                     working_stack.push(null); //push closing token
                     for (int i = 0; i < c.children.length; i++) {
@@ -230,53 +759,305 @@ public class DecisionTree {
                     }
                 } else { //leaf nodes have to be printed along with their class names
                     LeafNode c = (LeafNode) working_stack.pop();
-                    sb.append(nodeToXML(c, attrValStack.pop(), numtabs)).append(classes[c.my_class]).append("</node>\n");
+                    nodeToXML(writer, c, attrValStack.pop(), numtabs);
+                    writeEscaped(writer, classes[c.my_class]);
+                    writer.write("</node>\n");
                 }
             }
         }
-        sb.append("</tree>"); //closing the root node
-        return sb.toString();
+        writer.write("</tree>"); //closing the root node
     }
 
     /**
-     * XML creation helper method
+     * XML creation helper method, writes the opening tag of a node
      *
+     * @param writer     output
      * @param n          node to convert
      * @param attr_value value of attribute of parent node to get to this node
      * @param numTabs    number of tabs to append in front
-     * @return part of the XML string
+     * @throws IOException if the writer fails
      */
-    private String nodeToXML(Node n, int attr_value, int numTabs) {
-        StringBuilder sb = new StringBuilder();
+    private void nodeToXML(Writer writer, Node n, int attr_value, int numTabs) throws IOException {
         for (int i = 0; i < numTabs; i++) {
-            sb.append("\t"); //place tabs where necessary
+            writer.write('\t'); //place tabs where necessary
         }
         if (n.parent == null) {
-            sb.append("<tree");
+            writer.write("<tree");
         } else {
-            sb.append("<node");
+            writer.write("<node");
         }
         //build classes part of the string
-        sb.append(" classes=\"");
-        ArrayList<String> classStrings = new ArrayList<>();
+        writer.write(" classes=\"");
+        boolean first = true;
         for (int i = 0; i < this.classes.length; i++) {
             if (n.classDistribution[i] > 0) {
-                classStrings.add(classes[i] + ":" + n.classDistribution[i]);
+                if (!first) { //comma handling
+                    writer.write(',');
+                }
+                first = false;
+                writeEscaped(writer, classes[i]);
+                writer.write(':');
+                writer.write(Integer.toString(n.classDistribution[i]));
             }
         }
-        //comma handling
-        sb.append(classStrings.get(0));
-        for (int i = 1; i < classStrings.size(); i++) {
-            sb.append(",");
-            sb.append(classStrings.get(i));
-        }
         //entropy part of the string
-        sb.append("\" entropy=\"").append(n.entropyOfChosen).append("\"");
+        writer.write("\" entropy=\"");
+        writer.write(Double.toString(n.entropyOfChosen));
+        writer.write('"');
         if (n.parent != null) { //if n is not the root node, print attribute value
-            sb.append(' ').append(attributeNames[n.parent.my_attribute]).append("=\"").append(attributes[n.parent.my_attribute][attr_value]).append("\"");
+            writer.write(' ');
+            writer.write(attributeNames[n.parent.my_attribute]);
+            writer.write("=\"");
+            if (attributes[n.parent.my_attribute] == null) { //continuous attributes are split at a threshold
+                writeEscaped(writer, (attr_value == 0 ? "<=" : ">") + n.parent.threshold);
+            } else {
+                writeEscaped(writer, attributes[n.parent.my_attribute][attr_value]);
+            }
+            writer.write('"');
+        }
+        writer.write('>');
+    }
+
+    /**
+     * writes a string with the XML special characters replaced by entities
+     *
+     * @param writer output
+     * @param s      string to write
+     * @throws IOException if the writer fails
+     */
+    private static void writeEscaped(Writer writer, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    /**
+     * rebuilds a decision tree from the XML format written by writeXML.
+     * The returned tree can decide, but it has no training examples to build on.
+     *
+     * @param reader         input
+     * @param classes        classes the tree was built with
+     * @param attributes     attributes the tree was built with
+     * @param attributeNames names of the attributes
+     * @return decision tree
+     * @throws IOException if the input can't be read or is not a valid tree
+     */
+    public static DecisionTree readXML(Reader reader, String[] classes, String[][] attributes, String[] attributeNames) throws IOException {
+        DecisionTree d = new DecisionTree(classes, attributes, null, attributeNames);
+        HashMap<String, Integer> classIndex = indexOf(classes);
+        HashMap<String, Integer> attributeIndex = indexOf(attributeNames);
+        ArrayList<HashMap<String, Integer>> valueIndex = new ArrayList<>();
+        for (String[] values : attributes) {
+            valueIndex.add(values == null ? null : indexOf(values));
+        }
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(reader);
+            ArrayDeque<XMLNode> stack = new ArrayDeque<>(); //nodes which are not closed yet
+            while (xml.hasNext()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        XMLNode parent = stack.peek();
+                        XMLNode current = new XMLNode(parent);
+                        int attr = -1;
+                        for (int i = 0; i < xml.getAttributeCount(); i++) {
+                            String name = xml.getAttributeLocalName(i);
+                            if (name.equals("classes")) {
+                                current.classDistribution = new int[classes.length];
+                                for (String entry : xml.getAttributeValue(i).split(",")) {
+                                    int colon = entry.lastIndexOf(':');
+                                    if (colon >= 0) {
+                                        current.classDistribution[lookup(classIndex, entry.substring(0, colon))] = Integer.parseInt(entry.substring(colon + 1));
+                                    }
+                                }
+                            } else if (name.equals("entropy")) {
+                                current.entropy = Double.parseDouble(xml.getAttributeValue(i));
+                            } else {
+                                attr = lookup(attributeIndex, name);
+                                String value = xml.getAttributeValue(i);
+                                if (attributes[attr] != null) {
+                                    current.value = lookup(valueIndex.get(attr), value);
+                                } else if (value.startsWith("<=") || value.startsWith(">")) {
+                                    current.value = value.startsWith("<=") ? 0 : 1;
+                                    try {
+                                        current.threshold = Double.parseDouble(value.substring(current.value == 0 ? 2 : 1));
+                                    } catch (NumberFormatException e) {
+                                        throw new IOException("invalid threshold \"" + value + "\"", e);
+                                    }
+                                } else {
+                                    throw new IOException("invalid threshold \"" + value + "\"");
+                                }
+                            }
+                        }
+                        if (current.classDistribution == null) {
+                            throw new IOException("missing classes of node at line " + xml.getLocation().getLineNumber());
+                        }
+                        if (parent != null) {
+                            if (attr < 0) {
+                                throw new IOException("missing attribute value of node at line " + xml.getLocation().getLineNumber());
+                            }
+                            if (parent.node == null) { //the first child tells us the attribute of the parent
+                                parent.node = d.new InternalNode(attr, parent.parentNode(), parent.classDistribution, parent.entropy);
+                                ((InternalNode) parent.node).threshold = current.threshold;
+                                parent.attach(d);
+                            } else if (((InternalNode) parent.node).my_attribute != attr) {
+                                throw new IOException("children decide on different attributes at line " + xml.getLocation().getLineNumber());
+                            } else if (Double.compare(((InternalNode) parent.node).threshold, current.threshold) != 0) {
+                                throw new IOException("children have different thresholds at line " + xml.getLocation().getLineNumber());
+                            }
+                        }
+                        stack.push(current);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                        if (!stack.isEmpty() && stack.peek().node == null) {
+                            stack.peek().text.append(xml.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        XMLNode closed = stack.pop();
+                        if (closed.node == null) { //nodes without children are leaves
+                            String name = closed.text.toString().trim();
+                            //older files don't name the class of a tree, which is just a leaf
+                            int class_ = name.isEmpty() && closed.parent == null ? d.getMajorityClass(closed.classDistribution) : lookup(classIndex, name);
+                            closed.node = d.new LeafNode(class_, closed.parentNode(), closed.classDistribution, closed.entropy);
+                            closed.attach(d);
+                        } else {
+                            for (Node child : ((InternalNode) closed.node).children) {
+                                if (child == null) {
+                                    throw new IOException("missing child of node at line " + xml.getLocation().getLineNumber());
+                                }
+                            }
+                        }
+                        break;
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        if (d.root == null) {
+            throw new IOException("the input contains no tree");
+        }
+        return d;
+    }
+
+    /**
+     * @param names names to index
+     * @return map from each name to its index
+     */
+    private static HashMap<String, Integer> indexOf(String[] names) {
+        HashMap<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            index.put(names[i], i);
+        }
+        return index;
+    }
+
+    /**
+     * @param index map from names to indices
+     * @param name  name to look up
+     * @return index of the name
+     * @throws IOException if the name is unknown
+     */
+    private static int lookup(HashMap<String, Integer> index, String name) throws IOException {
+        Integer i = index.get(name);
+        if (i == null) {
+            throw new IOException("unknown name \"" + name + "\"");
+        }
+        return i;
+    }
+
+    /**
+     * node of the XML input, which is not closed yet
+     */
+    private static class XMLNode {
+        XMLNode parent;
+        int[] classDistribution;
+        double entropy;
+        int value; //value of the attribute of the parent node
+        double threshold = Double.NaN; //threshold of the parent node, if it splits a continuous attribute
+        Node node; //created as soon as we know whether it's a leaf or an internal node
+        StringBuilder text = new StringBuilder();
+
+        /**
+         * @param parent enclosing XML node, or null for the root
+         */
+        XMLNode(XMLNode parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * @return parent node, or null for the root
+         */
+        InternalNode parentNode() {
+            return parent == null ? null : (InternalNode) parent.node;
+        }
+
+        /**
+         * links the created node into the tree
+         *
+         * @param d tree to build
+         */
+        void attach(DecisionTree d) {
+            if (node.parent == null) {
+                d.root = node;
+            } else {
+                node.parent.children[value] = node;
+            }
+        }
+    }
+
+    /**
+     * fork/join task growing the subtree below a node
+     */
+    private class GrowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final int sequentialCutoff;
+
+        /**
+         * @param node             root of the subtree
+         * @param sequentialCutoff nodes reached by fewer training examples are grown sequentially
+         */
+        GrowTask(Node node, int sequentialCutoff) {
+            this.node = node;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.getClass() == LeafNode.class) {
+                return;
+            }
+            if (node.to - node.from < sequentialCutoff) {
+                grow(node);
+                return;
+            }
+            ArrayList<GrowTask> tasks = new ArrayList<>();
+            for (Node child : expand((InternalNode) node)) {
+                if (child.getClass() == InternalNode.class) {
+                    tasks.add(new GrowTask(child, sequentialCutoff));
+                }
+            }
+            invokeAll(tasks);
         }
-        sb.append(">");
-        return sb.toString();
     }
 
     /**
@@ -284,24 +1065,56 @@ public class DecisionTree {
      */
     abstract class Node {
         InternalNode parent;
-        ArrayList<Integer> chosenOnes;
+        int from; //slice of order with the training examples reaching this node
+        int to;
         int[] classDistribution;
         double entropyOfChosen;
 
         /**
          * basic initialization for nodes
          *
-         * @param parent     parent node
-         * @param chosenOnes set of training examples (indexes) to reach this node
+         * @param parent parent node
+         * @param from   first position of the training examples reaching this node in order
+         * @param to     position after the last training example
          */
-        Node(InternalNode parent, ArrayList<Integer> chosenOnes) {
+        Node(InternalNode parent, int from, int to) {
             this.parent = parent;
-            this.chosenOnes = chosenOnes;
+            this.from = from;
+            this.to = to;
             this.classDistribution = new int[classes.length];
-            for (int i = 0; i < chosenOnes.size(); i++) {
-                classDistribution[trainingData[chosenOnes.get(i)][trainingData[i].length - 1]]++;
+            int size = 0;
+            for (int i = from; i < to; i++) {
+                int w = weights == null ? 1 : weights[order[i]];
+                classDistribution[trainingData[order[i]][attributes.length]] += w;
+                size += w;
             }
-            this.entropyOfChosen = getEntropy(classDistribution, chosenOnes.size());
+            this.entropyOfChosen = getEntropy(classDistribution, size);
+        }
+
+        /**
+         * initialization for nodes without training examples
+         *
+         * @param parent            parent node
+         * @param classDistribution array of sums of instances by class
+         * @param entropyOfChosen   entropy of the instances
+         */
+        Node(InternalNode parent, int[] classDistribution, double entropyOfChosen) {
+            this.parent = parent;
+            this.classDistribution = classDistribution;
+            this.entropyOfChosen = entropyOfChosen;
+        }
+
+        /**
+         * takes over the training examples and statistics of another node
+         *
+         * @param other node that reaches the same training examples
+         */
+        Node(Node other) {
+            this.parent = other.parent;
+            this.from = other.from;
+            this.to = other.to;
+            this.classDistribution = other.classDistribution;
+            this.entropyOfChosen = other.entropyOfChosen;
         }
 
         abstract int getClass_(int[] attributes);
@@ -316,12 +1129,26 @@ public class DecisionTree {
         /**
          * initializes a leaf of the decision tree
          *
-         * @param c          class, which becomes the output, whenever this node is reached
-         * @param chosenOnes set of training examples (indexes) to reach this node
-         * @param parent     parent node
+         * @param c      class, which becomes the output, whenever this node is reached
+         * @param from   first position of the training examples reaching this node in order
+         * @param to     position after the last training example
+         * @param parent parent node
          */
-        LeafNode(int c, ArrayList<Integer> chosenOnes, InternalNode parent) {
-            super(parent, chosenOnes);
+        LeafNode(int c, int from, int to, InternalNode parent) {
+            super(parent, from, to);
+            this.my_class = c;
+        }
+
+        /**
+         * initializes a leaf without training examples
+         *
+         * @param c                 class, which becomes the output, whenever this node is reached
+         * @param parent            parent node
+         * @param classDistribution array of sums of instances by class
+         * @param entropyOfChosen   entropy of the instances
+         */
+        LeafNode(int c, InternalNode parent, int[] classDistribution, double entropyOfChosen) {
+            super(parent, classDistribution, entropyOfChosen);
             this.my_class = c;
         }
 
@@ -340,17 +1167,32 @@ public class DecisionTree {
      */
     private class InternalNode extends Node {
         int my_attribute;
+        double threshold = Double.NaN; //values up to it reach child 0, larger ones child 1, only for continuous attributes
         Node[] children;
+        SplittableRandom random; //source of the random choices of the children, only used until they are created
+
+        /**
+         * @param attr attribute this node uses to decide
+         * @param node node with the training examples (indexes) and the parent of this node
+         */
+        InternalNode(int attr, Node node) {
+            super(node);
+            this.my_attribute = attr;
+            this.children = new Node[attributes[my_attribute] == null ? 2 : attributes[my_attribute].length];
+        }
 
         /**
-         * @param attr       attribute this node uses to decide
-         * @param chosenOnes set of training examples (indexes) to reach this node
-         * @param parent     parent node
+         * initializes an internal node without training examples
+         *
+         * @param attr              attribute this node uses to decide
+         * @param parent            parent node
+         * @param classDistribution array of sums of instances by class
+         * @param entropyOfChosen   entropy of the instances
          */
-        InternalNode(int attr, ArrayList<Integer> chosenOnes, InternalNode parent) {
-            super(parent, chosenOnes);
+        InternalNode(int attr, InternalNode parent, int[] classDistribution, double entropyOfChosen) {
+            super(parent, classDistribution, entropyOfChosen);
             this.my_attribute = attr;
-            this.children = new Node[attributes[my_attribute].length];
+            this.children = new Node[attributes[my_attribute] == null ? 2 : attributes[my_attribute].length];
         }
 
         /**
@@ -361,7 +1203,18 @@ public class DecisionTree {
          */
         @Override
         int getClass_(int[] attributes) {
-            return children[attributes[my_attribute]].getClass_(attributes);
+            return children[branch(attributes[my_attribute])].getClass_(attributes);
+        }
+
+        /**
+         * @param value value of the attribute of this node, the value index for attributes that aren't continuous
+         * @return index of the child
+         */
+        int branch(double value) {
+            if (attributes[my_attribute] != null) {
+                return (int) value;
+            }
+            return value <= threshold ? 0 : 1;
         }
     }
 }
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Learns the weights of the weighted L1 distance with the rule of Sheet9:
+ * each point is compared to its nearest neighbour, and the weights of the dimensions with the smallest and the largest
+ * weighted difference are moved by delta, depending on whether the neighbour has the same class.
+ * <p>
+ * In each epoch the nearest neighbours are searched in parallel with the weights frozen at the start of the epoch,
+ * then the updates are applied one after another in the order of the points, so the result doesn't depend
+ * on the number of threads.
+ * <p>
+ * Unlike the plain rule, the weights are clamped at 0. A negative weight would reward distance along its dimension,
+ * and the KD-tree has to scan all points as soon as one weight is negative.
+ */
+public class FeatureWeightLearner {
+    private final double[] points;
+    private final int dimensions;
+    private final int[] labels;
+    private final double delta;
+    private final double[] weights;
+    private final WeightedKDTree tree;
+    private int epochs; //number of finished epochs
+
+    /**
+     * metrics of one epoch
+     */
+    public static class Epoch {
+        final int number;
+        final double accuracy;
+        final double change;
+        final long nanos;
+
+        Epoch(int number, double accuracy, double change, long nanos) {
+            this.number = number;
+            this.accuracy = accuracy;
+            this.change = change;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return number of the epoch, starting at 1
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return fraction of the points, whose nearest neighbour has the same class, with the weights of the epoch start
+         */
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        /**
+         * @return sum of the absolute changes of the weights during the epoch
+         */
+        public double getChange() {
+            return change;
+        }
+
+        /**
+         * @return duration of the epoch
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("epoch %d: accuracy %.4f, weight change %.4f, %.3f ms", number, accuracy, change, nanos / 1e6);
+        }
+    }
+
+    /**
+     * @param points     coordinates of the points, row-major, must not be modified
+     * @param dimensions number of coordinates of each point
+     * @param labels     class of each point
+     * @param weights    initial weight of each dimension, is copied
+     * @param delta      step size of the weight updates
+     * @param pool       pool, which builds the tree
+     */
+    public FeatureWeightLearner(double[] points, int dimensions, int[] labels, double[] weights, double delta,
+                                ForkJoinPool pool) {
+        if (labels.length * dimensions != points.length) {
+            throw new IllegalArgumentException("expected " + points.length / dimensions + " labels, got " + labels.length);
+        }
+        this.points = points;
+        this.dimensions = dimensions;
+        this.labels = labels;
+        this.delta = delta;
+        this.weights = weights.clone();
+        this.tree = new WeightedKDTree(points, dimensions, weights, pool);
+    }
+
+    /**
+     * runs epochs until the weights change at most by the tolerance or the maximum number of epochs is reached
+     *
+     * @param maxEpochs maximum number of epochs
+     * @param tolerance sum of the absolute weight changes of an epoch, at or below which the weights count as converged
+     * @param pool      pool, which runs the nearest-neighbour searches
+     * @return metrics of each epoch
+     */
+    public List<Epoch> fit(int maxEpochs, double tolerance, ForkJoinPool pool) {
+        List<Epoch> result = new ArrayList<>();
+        for (int i = 0; i < maxEpochs; i++) {
+            Epoch epoch = epoch(pool);
+            result.add(epoch);
+            if (epoch.change <= tolerance) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param pool pool, which runs the nearest-neighbour searches
+     * @return metrics of the epoch
+     */
+    public Epoch epoch(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        double[] before = weights.clone();
+        tree.setWeights(before);
+        int[] neighbours = tree.nearestOfAll(pool);
+        int correct = 0;
+        for (int i = 0; i < neighbours.length; i++) {
+            int n = neighbours[i];
+            if (n < 0) {
+                continue; //the only point
+            }
+            boolean same = labels[n] == labels[i];
+            if (same) {
+                correct++;
+            }
+            updateWeights(same, weights, points, n * dimensions, i * dimensions, delta);
+            for (int j = 0; j < dimensions; j++) {
+                weights[j] = Math.max(0, weights[j]);
+            }
+        }
+        double change = 0;
+        for (int j = 0; j < dimensions; j++) {
+            change += Math.abs(weights[j] - before[j]);
+        }
+        epochs++;
+        return new Epoch(epochs, correct / (double) Math.max(1, neighbours.length), change, System.nanoTime() - start);
+    }
+
+    /**
+     * @return copy of the current weights
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * moves the weight of the dimension with the smallest weighted difference between point a and b up by delta and
+     * the one with the largest down if the class of the points is the same, and the other way round if not
+     *
+     * @param correct whether the points have the same class
+     * @param weights weight of each dimension, gets updated
+     * @param points  array containing both points
+     * @param aFrom   index of the first coordinate of point a
+     * @param bFrom   index of the first coordinate of point b
+     * @param delta   step size
+     */
+    static void updateWeights(boolean correct, double[] weights, double[] points, int aFrom, int bFrom, double delta) {
+        int min = 0;
+        int max = 0;
+        double minResult = Math.abs(points[aFrom] - points[bFrom]) * weights[0];
+        double maxResult = minResult;
+        for (int i = 1; i < weights.length; i++) {
+            double result = Math.abs(points[aFrom + i] - points[bFrom + i]) * weights[i];
+            if (result < minResult) {
+                min = i;
+                minResult = result;
+            } else if (result > maxResult) {
+                max = i;
+                maxResult = result;
+            }
+        }
+        weights[min] += (correct ? 1 : -1) * delta;
+        weights[max] -= (correct ? 1 : -1) * delta;
+    }
+}
@@ -1,13 +1,238 @@
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 
 /**
  * Created by max on 01.12.16.
+ * <p>
+ * The data points and centers are stored row-major in flat arrays, so the distance computations
+ * walk through contiguous memory instead of following a reference per row.
  */
 public class K_Means {
-    private String[][] attributes; //only for discrete-valued attributes
-    private double[][] trainingData;
-    private double[][] centers;
+    private static final int SEQUENTIAL_CUTOFF = 4096; //data points, which are assigned in one task
+    private static final double BOUND_SLACK = 1e-9; //relative safety margin against rounding errors of the distance bounds
+    private String[][] attributes; //only for discrete-valued attributes, null for continuous data
+    private int dimensions; //coordinates of each data point and center
+    private int size; //number of data points
+    private double[] trainingData; //coordinates of data point i start at i * dimensions
+    private int[] labels; //class of each data point, null if unknown
+    private double[] centers; //coordinates of center j start at j * dimensions
+    private int k;
+    private Settings settings;
+    //state of the HAMERLY mode
+    private int[] assignment; //center each data point was assigned to last
+    private double[] upper; //upper bound of the distance of each data point to its assigned center
+    private double[] lower; //lower bound of the distance of each data point to any other center
+    private double[] halfMinDistance; //half the distance of each center to its closest other center
+    private int iterations; //number of finished iterations
+    private boolean converged; //whether the last iteration moved the centers less than the tolerance
+
+    /**
+     * variants of the k-means algorithm
+     */
+    public enum Mode {
+        /**
+         * computes the distance of every data point to every center in each iteration
+         */
+        LLOYD,
+        /**
+         * keeps bounds of the distances (Hamerly's algorithm) to skip distance computations
+         * that can't change the assignment of a data point. The centers are the same as with LLOYD.
+         */
+        HAMERLY
+    }
+
+    /**
+     * options of the algorithm
+     */
+    public static class Settings {
+        Mode mode = Mode.LLOYD;
+        Seeding seeding = Seeding.RANDOM;
+        Long seed; //null for a random seed
+        double tolerance = 0.0000001d; //squared shift of the centers, at or below which they count as converged
+        long timeBudget = Long.MAX_VALUE; //nanoseconds after which no further iteration is started
+        IterationListener listener; //null to stay silent
+        ForkJoinPool pool = ForkJoinPool.commonPool(); //runs the passes over the data and the runs of bestOf
+
+        /**
+         * @param mode variant of the algorithm
+         * @return these settings
+         */
+        public Settings mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param seeding way of choosing the initial centers
+         * @return these settings
+         */
+        public Settings seeding(Seeding seeding) {
+            this.seeding = seeding;
+            return this;
+        }
+
+        /**
+         * @param seed seed of the random choices, so runs can be repeated
+         * @return these settings
+         */
+        public Settings seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param tolerance sum of the squared distances the centers moved in one iteration,
+         *                  at or below which the algorithm stops
+         * @return these settings
+         */
+        public Settings tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * The running iteration is always finished, so the budget can be exceeded by up to one iteration.
+         *
+         * @param budget time after which no further iteration is started
+         * @param unit   unit of the budget
+         * @return these settings
+         */
+        public Settings timeBudget(long budget, TimeUnit unit) {
+            this.timeBudget = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * @param listener gets called after each iteration, must be thread-safe if used with bestOf
+         * @return these settings
+         */
+        public Settings listener(IterationListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param pool pool, which runs the passes over the data and the runs of bestOf
+         * @return these settings
+         */
+        public Settings pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+    }
+
+    /**
+     * observes the progress of the algorithm
+     */
+    public interface IterationListener {
+        /**
+         * @param iteration metrics of the finished iteration
+         * @return false to stop the algorithm after this iteration
+         */
+        boolean onIteration(Iteration iteration);
+    }
+
+    /**
+     * metrics of one iteration
+     */
+    public static class Iteration {
+        final int number;
+        final double inertia;
+        final double shift;
+        final int emptyClusters;
+        final long assignNanos;
+        final long updateNanos;
+        final long elapsedNanos;
+
+        Iteration(int number, double inertia, double shift, int emptyClusters, long assignNanos, long updateNanos, long elapsedNanos) {
+            this.number = number;
+            this.inertia = inertia;
+            this.shift = shift;
+            this.emptyClusters = emptyClusters;
+            this.assignNanos = assignNanos;
+            this.updateNanos = updateNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of the iteration, starting at 1
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return sum of the squared distances of the data points to the centers they were assigned to in this iteration
+         */
+        public double getInertia() {
+            return inertia;
+        }
+
+        /**
+         * @return sum of the squared distances the centers moved
+         */
+        public double getShift() {
+            return shift;
+        }
+
+        /**
+         * @return number of centers without assigned data points, which kept their position
+         */
+        public int getEmptyClusters() {
+            return emptyClusters;
+        }
+
+        /**
+         * @return time spent assigning the data points and summing them up per center
+         */
+        public long getAssignNanos() {
+            return assignNanos;
+        }
+
+        /**
+         * @return time spent computing the new centers and updating the distance bounds
+         */
+        public long getUpdateNanos() {
+            return updateNanos;
+        }
+
+        /**
+         * @return time since the algorithm started, including this iteration
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("iteration %d: inertia %.4f, shift %.3g, empty clusters %d, assign %.3f ms, update %.3f ms",
+                    number, inertia, shift, emptyClusters, assignNanos / 1e6, updateNanos / 1e6);
+        }
+    }
+
+    /**
+     * ways of choosing the initial centers
+     */
+    public enum Seeding {
+        /**
+         * uniformly distributed within the domains of the attributes
+         */
+        RANDOM,
+        /**
+         * k-means++: data points, each chosen with a probability proportional to its squared distance
+         * to the closest center chosen before
+         */
+        K_MEANS_PLUS_PLUS
+    }
 
     /**
      * Constructor which can use discrete-valued input and apply k-means to it.
@@ -17,19 +242,129 @@ public class K_Means {
      * @param k            to specify the k in k-means
      */
     public K_Means(String[][] attributes, int[][] trainingData, int k) {
+        this(attributes, trainingData, k, new Settings());
+    }
+
+    /**
+     * Constructor which can use discrete-valued input and apply k-means to it.
+     *
+     * @param attributes   only used for the count of the attributes and their domains
+     * @param trainingData training data
+     * @param k            to specify the k in k-means
+     * @param settings     options of the algorithm
+     */
+    public K_Means(String[][] attributes, int[][] trainingData, int k, Settings settings) {
+        this(attributes, toDouble(trainingData, attributes.length), getLabels(trainingData, attributes.length), attributes.length, k, settings,
+                settings.seed == null ? new SplittableRandom() : new SplittableRandom(settings.seed));
+    }
+
+    /**
+     * Constructor for continuous data, which uses the given array without copying it.
+     *
+     * @param points     coordinates of the data points, row-major
+     * @param dimensions number of coordinates of each data point
+     * @param k          to specify the k in k-means
+     * @param settings   options of the algorithm
+     */
+    public K_Means(double[] points, int dimensions, int k, Settings settings) {
+        this(null, points, null, dimensions, k, settings,
+                settings.seed == null ? new SplittableRandom() : new SplittableRandom(settings.seed));
+    }
+
+    /**
+     * @param attributes   only used for the count of the attributes and their domains, null for continuous data
+     * @param trainingData coordinates of the data points, row-major, which are not modified and can be shared
+     * @param labels       class of each data point, null if unknown
+     * @param dimensions   number of coordinates of each data point
+     * @param k            to specify the k in k-means
+     * @param settings     options of the algorithm
+     * @param random       source of the random choices
+     */
+    private K_Means(String[][] attributes, double[] trainingData, int[] labels, int dimensions, int k, Settings settings, SplittableRandom random) {
+        this.settings = settings;
         this.attributes = attributes;
-        this.trainingData = new double[trainingData.length][trainingData[0].length];
-        for (int i = 0; i < this.trainingData.length; i++) {
-            for (int j = 0; j < this.trainingData[0].length; j++) {
-                this.trainingData[i][j] = trainingData[i][j];
-            }
+        this.trainingData = trainingData;
+        this.labels = labels;
+        this.dimensions = dimensions;
+        this.size = trainingData.length / dimensions;
+        this.k = k;
+        this.centers = new double[k * dimensions];
+        if (settings.seeding == Seeding.K_MEANS_PLUS_PLUS) {
+            findKMeansPlusPlusCenters(random);
+        } else {
+            findRandomCenters(random);
         }
-        this.centers = new double[k][attributes.length];
-        findRandomCenters();
-        System.out.println("Starting with following centers: ");
-        System.out.println(Arrays.deepToString(centers));
         k_means();
     }
+    /**
+     * runs k-means several times in parallel, each time with different initial centers
+     *
+     * @param attributes   only used for the count of the attributes and their domains
+     * @param trainingData training data
+     * @param k            to specify the k in k-means
+     * @param settings     options of the algorithm, the seed determines the seeds of all runs
+     * @param restarts     number of runs
+     * @return the run with the lowest inertia
+     */
+    public static K_Means bestOf(String[][] attributes, int[][] trainingData, int k, Settings settings, int restarts) {
+        double[] data = toDouble(trainingData, attributes.length);
+        int[] labels = getLabels(trainingData, attributes.length);
+        SplittableRandom root = settings.seed == null ? new SplittableRandom() : new SplittableRandom(settings.seed);
+        ArrayList<Callable<K_Means>> runs = new ArrayList<>();
+        for (int i = 0; i < restarts; i++) {
+            SplittableRandom random = root.split();
+            runs.add(() -> new K_Means(attributes, data, labels, attributes.length, k, settings, random));
+        }
+        K_Means best = null;
+        for (Future<K_Means> run : settings.pool.invokeAll(runs)) {
+            try {
+                K_Means current = run.get();
+                if (best == null || current.getInertia() < best.getInertia()) {
+                    best = current;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("k-means was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("a k-means run failed", e.getCause());
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param trainingData discrete-valued data
+     * @param dimensions   number of attributes
+     * @return the attributes of the data as doubles, row-major
+     */
+    private static double[] toDouble(int[][] trainingData, int dimensions) {
+        double[] result = new double[trainingData.length * dimensions];
+        for (int i = 0; i < trainingData.length; i++) {
+            int[] row = trainingData[i];
+            int offset = i * dimensions;
+            for (int j = 0; j < dimensions; j++) {
+                result[offset + j] = row[j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param trainingData discrete-valued data
+     * @param dimensions   number of attributes
+     * @return the class of each example, null if the data has no classes
+     */
+    private static int[] getLabels(int[][] trainingData, int dimensions) {
+        if (trainingData.length == 0 || trainingData[0].length <= dimensions) {
+            return null;
+        }
+        int[] labels = new int[trainingData.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = trainingData[i][dimensions];
+        }
+        return labels;
+    }
+
     /**
      * Entry point
      *
@@ -41,24 +376,92 @@ public class K_Means {
         if (args.length > 0 && args[0].chars().allMatch(Character::isDigit)) {
             k = Integer.parseInt(args[0]);
         }
-        K_Means k_means = new K_Means(carData.attributes, carData.trainingData, k);
+        K_Means k_means = new K_Means(carData.attributes, carData.trainingData, k,
+                new Settings().listener(iteration -> {
+                    System.out.println(iteration);
+                    return true;
+                }));
+        System.out.println(Arrays.deepToString(k_means.getCenters()));
         System.out.println(Arrays.deepToString(k_means.getCenterStats(carData.classes)));
     }
     /**
      * Implementation of k-means algorithm.
-     * uses 10^-7 as epsilon value
-     * realigns centers until they don't change anymore
+     * realigns centers until they move less than the tolerance of the settings,
+     * the time budget is used up or the listener stops it
      */
     private void k_means() {
-        double[][] _centers = findBetterCenters();
-        System.out.println(Arrays.deepToString(_centers));
-        while (centerDistance(centers, _centers) > 0.0000001d) {
-            centers = _centers;
-            _centers = findBetterCenters();
-            System.out.println(Arrays.deepToString(_centers));
+        if (settings.mode == Mode.HAMERLY) {
+            assignment = new int[size];
+            upper = new double[size];
+            lower = new double[size];
+            Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        }
+        long start = System.nanoTime();
+        boolean proceed = true;
+        while (proceed) {
+            long assignStart = System.nanoTime();
+            Accumulator sum = assignAndSum();
+            long updateStart = System.nanoTime();
+            double[] _centers = centers.clone();
+            int emptyClusters = findBetterCenters(sum, _centers);
+            double shift = euclideanSquared(centers, 0, _centers, 0, centers.length);
+            converged = shift <= settings.tolerance;
+            if (!converged) {
+                moveCenters(_centers);
+            }
+            long end = System.nanoTime();
+            iterations++;
+            if (settings.listener != null) {
+                proceed = settings.listener.onIteration(new Iteration(iterations, sum.inertia, shift, emptyClusters,
+                        updateStart - assignStart, end - updateStart, end - start));
+            }
+            proceed &= !converged && end - start < settings.timeBudget;
         }
     }
 
+    /**
+     * @return number of finished iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return false if the algorithm was stopped by the time budget or the listener before the centers converged
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * replaces the current centers and, in HAMERLY mode, loosens the distance bounds by the movement of the centers
+     *
+     * @param _centers new centers
+     */
+    private void moveCenters(double[] _centers) {
+        if (settings.mode == Mode.HAMERLY) {
+            double[] movement = new double[k];
+            int maxIndex = 0;
+            for (int j = 0; j < k; j++) {
+                movement[j] = Math.sqrt(euclideanSquared(centers, j * dimensions, _centers, j * dimensions, dimensions));
+                if (movement[j] > movement[maxIndex]) {
+                    maxIndex = j;
+                }
+            }
+            double secondMax = 0;
+            for (int j = 0; j < k; j++) {
+                if (j != maxIndex) {
+                    secondMax = Math.max(secondMax, movement[j]);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                upper[i] += movement[assignment[i]];
+                lower[i] -= assignment[i] == maxIndex ? secondMax : movement[maxIndex];
+            }
+        }
+        centers = _centers;
+    }
+
     /**
      * only for discrete data with labels
      *
@@ -66,66 +469,228 @@ public class K_Means {
      * @return the count of data points per label and center
      */
     public int[][] getCenterStats(String[] classes) {
-        int[][] centerStats = new int[centers.length][classes.length];
+        if (labels == null) {
+            throw new IllegalStateException("the data points have no classes");
+        }
+        int[][] centerStats = new int[k][classes.length];
         int[] centerAssignment = assignToCenters();
         for (int i = 0; i < centerAssignment.length; i++) {
-            centerStats[centerAssignment[i]][(int) trainingData[i][attributes.length]]++;
+            centerStats[centerAssignment[i]][labels[i]]++;
         }
         return centerStats;
     }
 
     /**
-     * @param a first center array
-     * @param b second center array
-     * @return the squared euclidean distance between two center arrays
+     * @return copy of the current centers, one row per center
      */
-    private double centerDistance(double[][] a, double[][] b) {
-        double result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result += euclideanSquared(a[i], b[i]);
+    public double[][] getCenters() {
+        double[][] rows = new double[k][];
+        for (int j = 0; j < k; j++) {
+            rows[j] = Arrays.copyOfRange(centers, j * dimensions, (j + 1) * dimensions);
         }
-        return result;
+        return rows;
     }
 
     /**
-     * @param v1 vector
-     * @param v2 vector
-     * @return the squared euclidean distance between vector v1 and v2
+     * The loop is unrolled with four independent sums, so the JIT can overlap the multiplications.
+     *
+     * @param v1     array containing the first vector
+     * @param from1  index of the first coordinate of the first vector
+     * @param v2     array containing the second vector
+     * @param from2  index of the first coordinate of the second vector
+     * @param length number of coordinates
+     * @return the squared euclidean distance between the two vectors
      */
-    private double euclideanSquared(double[] v1, double[] v2) {
-        double result = 0;
-        for (int i = 0; i < v1.length; i++) {
-            result += Math.pow(v1[i] - v2[i], 2);
+    static double euclideanSquared(double[] v1, int from1, double[] v2, int from2, int length) {
+        double r0 = 0;
+        double r1 = 0;
+        double r2 = 0;
+        double r3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            double d0 = v1[from1 + i] - v2[from2 + i];
+            double d1 = v1[from1 + i + 1] - v2[from2 + i + 1];
+            double d2 = v1[from1 + i + 2] - v2[from2 + i + 2];
+            double d3 = v1[from1 + i + 3] - v2[from2 + i + 3];
+            r0 += d0 * d0;
+            r1 += d1 * d1;
+            r2 += d2 * d2;
+            r3 += d3 * d3;
         }
-        return result;
+        for (; i < length; i++) {
+            double d = v1[from1 + i] - v2[from2 + i];
+            r0 += d * d;
+        }
+        return (r0 + r1) + (r2 + r3);
     }
 
     /**
-     * realigns current centers to the mean of their assigned points
+     * Assigns the points to the current centers and sums them up per center in one parallel pass over the data.
      *
-     * @return realigned centers
+     * @return sums and counts of the points per center
      */
-    private double[][] findBetterCenters() {
-        double[][] _centers = centers.clone();
-        int[] centerAssignment = assignToCenters();
-        for (int i = 0; i < _centers.length; i++) {
-            int countInstances = 0;
-            double[] sumInstances = new double[centers[i].length];
-            for (int j = 0; j < centerAssignment.length; j++) {
-                if (centerAssignment[j] == i) {
-                    countInstances++;
-                    addVector(sumInstances, trainingData[j]);
+    private Accumulator assignAndSum() {
+        if (settings.mode == Mode.HAMERLY) {
+            halfMinDistance = new double[k];
+            Arrays.fill(halfMinDistance, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < k; i++) {
+                for (int j = i + 1; j < k; j++) {
+                    double d = Math.sqrt(euclideanSquared(centers, i * dimensions, centers, j * dimensions, dimensions)) / 2;
+                    halfMinDistance[i] = Math.min(halfMinDistance[i], d);
+                    halfMinDistance[j] = Math.min(halfMinDistance[j], d);
                 }
             }
-            if (countInstances > 0) {
-                multVector(sumInstances, 1 / (double) countInstances);
-                _centers[i] = sumInstances;
+        }
+        return settings.pool.invoke(new AssignTask(0, size));
+    }
+
+    /**
+     * realigns centers to the mean of their assigned points.
+     * Centers without assigned points keep their position.
+     *
+     * @param sum      sums and counts of the points per center
+     * @param _centers copy of the current centers, which gets realigned
+     * @return number of centers without assigned points
+     */
+    private int findBetterCenters(Accumulator sum, double[] _centers) {
+        int emptyClusters = 0;
+        for (int i = 0; i < k; i++) {
+            if (sum.counts[i] > 0) {
+                multVector(sum.sums, i * dimensions, dimensions, 1 / (double) sum.counts[i]);
+                System.arraycopy(sum.sums, i * dimensions, _centers, i * dimensions, dimensions);
             } else {
-                System.out.println("There was a center without assigned instances.");
-                //that usually means that the initial centers were bad
+                emptyClusters++; //that usually means that the initial centers were bad
             }
         }
-        return _centers;
+        return emptyClusters;
+    }
+
+    /**
+     * @param i index of the data point
+     * @return index of the closest center
+     */
+    private int findClosestCenter(int i) {
+        int from = i * dimensions;
+        double min = Double.POSITIVE_INFINITY;
+        int minIndex = 0;
+        for (int j = 0; j < k; j++) {
+            double current = euclideanSquared(centers, j * dimensions, trainingData, from, dimensions);
+            if (current < min) {
+                min = current;
+                minIndex = j;
+            }
+        }
+        return minIndex;
+    }
+
+    /**
+     * finds the closest center of a data point like findClosestCenter,
+     * but skips the search as long as the distance bounds prove that the assigned center is still the closest
+     *
+     * @param i index of the data point
+     * @return index of the closest center
+     */
+    private int findClosestCenterBounded(int i) {
+        int from = i * dimensions;
+        int a = assignment[i];
+        double bound = Math.max(halfMinDistance[a], lower[i]);
+        if (upper[i] * (1 + BOUND_SLACK) < bound) {
+            return a;
+        }
+        upper[i] = Math.sqrt(euclideanSquared(centers, a * dimensions, trainingData, from, dimensions)); //tighten the upper bound
+        if (upper[i] * (1 + BOUND_SLACK) < bound) {
+            return a;
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double secondMin = Double.POSITIVE_INFINITY;
+        int minIndex = 0;
+        for (int j = 0; j < k; j++) {
+            double current = euclideanSquared(centers, j * dimensions, trainingData, from, dimensions);
+            if (current < min) {
+                secondMin = min;
+                min = current;
+                minIndex = j;
+            } else if (current < secondMin) {
+                secondMin = current;
+            }
+        }
+        assignment[i] = minIndex;
+        upper[i] = Math.sqrt(min);
+        lower[i] = Math.sqrt(secondMin);
+        return minIndex;
+    }
+
+    /**
+     * sums and counts of the data points assigned to each center
+     */
+    private static class Accumulator {
+        final double[] sums; //row-major like the centers
+        final int[] counts;
+        double inertia; //only summed up if there is a listener
+
+        Accumulator(int k, int dimensions) {
+            sums = new double[k * dimensions];
+            counts = new int[k];
+        }
+
+        /**
+         * adds the sums and counts of another accumulator to this one
+         *
+         * @param other accumulator to add
+         * @return this accumulator
+         */
+        Accumulator merge(Accumulator other) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            inertia += other.inertia;
+            return this;
+        }
+    }
+
+    /**
+     * fork/join task assigning a range of data points to their closest centers and summing them up per center
+     */
+    private class AssignTask extends RecursiveTask<Accumulator> {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        /**
+         * @param from index of the first data point
+         * @param to   index after the last data point
+         */
+        AssignTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            if (to - from <= SEQUENTIAL_CUTOFF) {
+                Accumulator result = new Accumulator(k, dimensions);
+                boolean bounded = settings.mode == Mode.HAMERLY;
+                boolean measure = settings.listener != null;
+                for (int i = from; i < to; i++) {
+                    int c = bounded ? findClosestCenterBounded(i) : findClosestCenter(i);
+                    result.counts[c]++;
+                    addVector(result.sums, c * dimensions, trainingData, i * dimensions, dimensions);
+                    if (measure) {
+                        result.inertia += euclideanSquared(centers, c * dimensions, trainingData, i * dimensions, dimensions);
+                    }
+                }
+                return result;
+            }
+            //the split points only depend on the range, so the sums are always added up in the same order
+            int middle = (from + to) >>> 1;
+            AssignTask left = new AssignTask(from, middle);
+            left.fork();
+            Accumulator right = new AssignTask(middle, to).compute();
+            return left.join().merge(right);
+        }
     }
 
     /**
@@ -134,18 +699,9 @@ public class K_Means {
      * @return array of assigned center indices
      */
     private int[] assignToCenters() {
-        int[] result = new int[trainingData.length];
+        int[] result = new int[size];
         for (int i = 0; i < result.length; i++) {
-            double min = Double.POSITIVE_INFINITY;
-            int minIndex = 0;
-            for (int j = 0; j < centers.length; j++) {
-                double current = euclideanSquared(centers[j], trainingData[i]);
-                if (current < min) {
-                    min = current;
-                    minIndex = j;
-                }
-            }
-            result[i] = minIndex;
+            result[i] = findClosestCenter(i);
         }
         return result;
     }
@@ -153,11 +709,13 @@ public class K_Means {
     /**
      * scales vector a with b
      *
-     * @param a vector
-     * @param b scale
+     * @param a      array containing the vector
+     * @param from   index of the first coordinate of the vector
+     * @param length number of coordinates
+     * @param b      scale
      */
-    private void multVector(double[] a, double b) {
-        for (int i = 0; i < a.length; i++) {
+    private static void multVector(double[] a, int from, int length, double b) {
+        for (int i = from; i < from + length; i++) {
             a[i] *= b;
         }
     }
@@ -165,23 +723,86 @@ public class K_Means {
     /**
      * adds vector b to a
      *
-     * @param a vector
-     * @param b vector
+     * @param a      array containing vector a
+     * @param fromA  index of the first coordinate of vector a
+     * @param b      array containing vector b
+     * @param fromB  index of the first coordinate of vector b
+     * @param length number of coordinates
      */
-    private void addVector(double[] a, double[] b) {
-        for (int i = 0; i < a.length; i++) {
-            a[i] += b[i];
+    private static void addVector(double[] a, int fromA, double[] b, int fromB, int length) {
+        for (int i = 0; i < length; i++) {
+            a[fromA + i] += b[fromB + i];
         }
     }
 
     /**
      * sets current centers to randomly chosen values
+     *
+     * @param random source of the random values
      */
-    private void findRandomCenters() {
-        for (int i = 0; i < centers.length; i++) {
-            for (int j = 0; j < centers[i].length; j++) {
-                centers[i][j] = Math.random() * attributes[j].length;
+    private void findRandomCenters(SplittableRandom random) {
+        //domain of each coordinate
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        for (int j = 0; j < dimensions; j++) {
+            if (attributes != null) {
+                max[j] = attributes[j].length;
+            } else { //bounding box of the continuous data
+                min[j] = Double.POSITIVE_INFINITY;
+                max[j] = Double.NEGATIVE_INFINITY;
+                for (int i = j; i < trainingData.length; i += dimensions) {
+                    min[j] = Math.min(min[j], trainingData[i]);
+                    max[j] = Math.max(max[j], trainingData[i]);
+                }
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < dimensions; j++) {
+                centers[i * dimensions + j] = min[j] + random.nextDouble() * (max[j] - min[j]);
             }
         }
     }
+
+    /**
+     * sets current centers to data points chosen by k-means++,
+     * which avoids the empty clusters and slow convergence of badly placed centers
+     *
+     * @param random source of the random choices
+     */
+    private void findKMeansPlusPlusCenters(SplittableRandom random) {
+        double[] minDistance = new double[size]; //squared distance to the closest chosen center
+        Arrays.fill(minDistance, Double.POSITIVE_INFINITY);
+        int chosen = random.nextInt(size);
+        for (int i = 0; i < k; i++) {
+            System.arraycopy(trainingData, chosen * dimensions, centers, i * dimensions, dimensions);
+            if (i == k - 1) {
+                break;
+            }
+            int center = i * dimensions;
+            settings.pool.submit(() -> IntStream.range(0, size).parallel().forEach(j ->
+                    minDistance[j] = Math.min(minDistance[j], euclideanSquared(centers, center, trainingData, j * dimensions, dimensions)))).join();
+            double total = 0;
+            for (double d : minDistance) {
+                total += d;
+            }
+            if (total == 0) { //all data points coincide with a center
+                chosen = random.nextInt(size);
+                continue;
+            }
+            double r = random.nextDouble() * total;
+            chosen = 0;
+            while (chosen < minDistance.length - 1 && (r -= minDistance[chosen]) >= 0) {
+                chosen++;
+            }
+        }
+    }
+
+    /**
+     * @return sum of the squared distances of the data points to their closest center
+     */
+    public double getInertia() {
+        return settings.pool.submit(() -> IntStream.range(0, size).parallel()
+                .mapToDouble(i -> euclideanSquared(centers, findClosestCenter(i) * dimensions, trainingData, i * dimensions, dimensions))
+                .sum()).join();
+    }
 }
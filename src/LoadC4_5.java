@@ -1,12 +1,43 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Created by max on 01.12.16.
+ * <p>
+ * Loads data sets in the C4.5 format: a .names file describing the classes and attributes
+ * and a .data file with one comma separated example per line, the class being the last value.
  */
 public class LoadC4_5 {
+    /**
+     * converts a data set to the "pat" format
+     *
+     * @param Args optional .names file and .data file, the car data set is used otherwise
+     */
     public static void main(String[] Args) {
-        CarData c = new CarData();
+        DataSet c;
+        if (Args.length >= 2) {
+            try {
+                c = load(Paths.get(Args[0]), Paths.get(Args[1]));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        } else {
+            c = new CarData();
+        }
         try (BufferedWriter w = new BufferedWriter(new FileWriter("cardata.pat"))) {
             for (int i = 0; i < c.trainingData.length; i++) {
                 w.write("\n" + c.trainingData[i][0]);
@@ -21,68 +52,405 @@ public class LoadC4_5 {
     }
 
     /**
-     * loads a line from the .data file to an entry of the trainingData array
+     * loads a data set described by a .names file
+     *
+     * @param names .names file with the classes and attributes
+     * @param data  .data file with the examples
+     * @return the encoded data set
+     * @throws IOException if a file can't be read or is malformed
+     */
+    public static DataSet load(Path names, Path data) throws IOException {
+        Schema schema = Schema.readNames(names);
+        return new DataSet(schema, loadData(schema, data));
+    }
+
+    /**
+     * reads a .data file and encodes each value as index into the dictionaries of the schema
+     *
+     * @param schema classes and attributes of the data set
+     * @param data   .data file with the examples
+     * @return one row per example: the indices of the attribute values followed by the index of the class
+     * @throws IOException if the file can't be read or contains a malformed line
+     */
+    public static int[][] loadData(Schema schema, Path data) throws IOException {
+        RowParser parser = new RowParser(schema);
+        try (InputStream in = Files.newInputStream(data)) {
+            byte[] buf = new byte[1 << 16];
+            ByteBuffer view = ByteBuffer.wrap(buf); //what the parser reads
+            int end = 0; //end of the valid bytes in buf
+            int scanned = 0; //bytes of buf already searched for a line break
+            long line = 0;
+            int n;
+            while ((n = in.read(buf, end, buf.length - end)) >= 0) {
+                end += n;
+                int lineStart = 0;
+                for (int i = scanned; i < end; i++) {
+                    if (buf[i] == '\n') {
+                        parser.parseLine(view, lineStart, i, ++line);
+                        lineStart = i + 1;
+                    }
+                }
+                //keep the incomplete last line for the next read
+                System.arraycopy(buf, lineStart, buf, 0, end - lineStart);
+                end -= lineStart;
+                scanned = end;
+                if (end == buf.length) { //the line does not fit into the buffer
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    view = ByteBuffer.wrap(buf);
+                }
+            }
+            parser.parseLine(view, 0, end, ++line);
+        }
+        return parser.getRows();
+    }
+
+    /**
+     * reads a .data file like loadData, but parses newline-aligned chunks of the memory-mapped file in parallel.
+     * The rows keep the order of the file.
      *
-     * @param line         input string
-     * @param classes      classes for string comparison
-     * @param attributes   attributes for string comparison
-     * @param trainingData array to save training examples
-     * @param l            current line number
+     * @param schema classes and attributes of the data set
+     * @param data   .data file with the examples
+     * @param pool   pool to parse the chunks in
+     * @return one row per example: the indices of the attribute values followed by the index of the class
+     * @throws IOException if the file can't be read or contains a malformed line
      */
-    private static void loadLine(String line, String[] classes, String[][] attributes, int[][] trainingData, int l) {
-        String[] keys = line.split(",");
-        if (keys.length == attributes.length + 1) {
-            for (int i = 0; i < attributes.length; i++) {
-                for (int j = 0; j < attributes[i].length; j++) {
-                    if (keys[i].equals(attributes[i][j])) {
-                        trainingData[l][i] = j;
-                        break;
+    public static int[][] loadDataParallel(Schema schema, Path data, ForkJoinPool pool) throws IOException {
+        RowParser shared = new RowParser(schema);
+        ArrayList<Callable<int[][]>> tasks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+            long size = channel.size();
+            //a few chunks per thread for load balancing
+            long chunkSize = Math.max(1 << 20, Math.min(1 << 26, size / (pool.getParallelism() * 4L)));
+            long start = 0;
+            while (start < size) {
+                long end = findLineEnd(channel, Math.min(start + chunkSize, size));
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                long offset = start;
+                tasks.add(() -> parseChunk(new RowParser(shared), chunk, offset));
+                start = end;
+            }
+        }
+        //the mappings stay valid after closing the channel
+        ArrayList<int[][]> parts = new ArrayList<>();
+        int rows = 0;
+        for (Future<int[][]> part : pool.invokeAll(tasks)) {
+            try {
+                parts.add(part.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("loading was interrupted");
+            } catch (ExecutionException e) {
+                //the pool wraps checked exceptions of the task
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
                     }
                 }
+                throw new IOException(e.getCause());
+            }
+            rows += parts.get(parts.size() - 1).length;
+        }
+        int[][] result = new int[rows][];
+        int i = 0;
+        for (int[][] part : parts) {
+            System.arraycopy(part, 0, result, i, part.length);
+            i += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * @param channel file to search
+     * @param from    position to start searching
+     * @return position after the next line break, or the end of the file
+     * @throws IOException if the file can't be read
+     */
+    private static long findLineEnd(FileChannel channel, long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long position = from;
+        while (position < channel.size()) {
+            buf.clear();
+            int n = channel.read(buf, position);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return position + i + 1;
+                }
             }
-            for (int i = 0; i < classes.length; i++) {
-                if (keys[keys.length - 1].equals(classes[i])) {
-                    trainingData[l][keys.length - 1] = i;
-                    break;
+            position += n;
+        }
+        return channel.size();
+    }
+
+    /**
+     * @param parser parser to collect the rows
+     * @param chunk  whole lines of the file
+     * @param offset position of the chunk in the file for error messages
+     * @return the rows of the chunk
+     * @throws IOException if the chunk contains a malformed line
+     */
+    private static int[][] parseChunk(RowParser parser, ByteBuffer chunk, long offset) throws IOException {
+        int length = chunk.limit(); //parsed in place with absolute indexes, without copying it to the heap
+        long line = 0;
+        int lineStart = 0;
+        try {
+            for (int i = 0; i < length; i++) {
+                if (chunk.get(i) == '\n') {
+                    parser.parseLine(chunk, lineStart, i, ++line);
+                    lineStart = i + 1;
                 }
             }
+            parser.parseLine(chunk, lineStart, length, ++line);
+        } catch (IOException e) {
+            throw new IOException("chunk at byte " + offset + ", " + e.getMessage(), e);
         }
+        return parser.getRows();
     }
 
-    static class CarData {
+    /**
+     * classes and discrete-valued attributes of a data set
+     */
+    static class Schema {
         String[] classes;
         String[][] attributes;
         String[] attributeNames;
+
+        /**
+         * @param classes        names of the classes
+         * @param attributes     values of each attribute
+         * @param attributeNames names of the attributes
+         */
+        Schema(String[] classes, String[][] attributes, String[] attributeNames) {
+            this.classes = classes;
+            this.attributes = attributes;
+            this.attributeNames = attributeNames;
+        }
+
+        /**
+         * reads a .names file in the C4.5 format.
+         * Everything after "|" is a comment, the first definition lists the classes,
+         * every further definition has the form "name: value, value, ... ."
+         *
+         * @param names .names file
+         * @return the schema described by the file
+         * @throws IOException if the file can't be read or is malformed
+         */
+        static Schema readNames(Path names) throws IOException {
+            String[] classes = null;
+            ArrayList<String> attributeNames = new ArrayList<>();
+            ArrayList<String[]> attributes = new ArrayList<>();
+            int l = 0;
+            for (String line : Files.readAllLines(names, StandardCharsets.UTF_8)) {
+                l++;
+                int comment = line.indexOf('|');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.endsWith(".")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (classes == null) {
+                    classes = splitValues(line);
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    throw new IOException(names + ":" + l + ": expected \"name: values\"");
+                }
+                String[] values = splitValues(line.substring(colon + 1));
+                if (values.length == 1 && (values[0].equals("continuous") || values[0].equals("ignore"))) {
+                    throw new IOException(names + ":" + l + ": " + values[0] + " attributes are not supported");
+                }
+                attributeNames.add(line.substring(0, colon).trim());
+                attributes.add(values);
+            }
+            if (classes == null || attributes.isEmpty()) {
+                throw new IOException(names + ": no classes or attributes defined");
+            }
+            return new Schema(classes, attributes.toArray(new String[0][]), attributeNames.toArray(new String[0]));
+        }
+
+        /**
+         * @param values comma separated values
+         * @return the trimmed values
+         */
+        private static String[] splitValues(String values) {
+            String[] result = values.split(",");
+            for (int i = 0; i < result.length; i++) {
+                result[i] = result[i].trim();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * encoded examples along with their schema
+     */
+    static class DataSet extends Schema {
         int[][] trainingData;
 
+        /**
+         * @param schema       classes and attributes
+         * @param trainingData encoded examples, see loadData
+         */
+        DataSet(Schema schema, int[][] trainingData) {
+            this(schema.classes, schema.attributes, schema.attributeNames, trainingData);
+        }
+
+        /**
+         * @param classes        names of the classes
+         * @param attributes     values of each attribute
+         * @param attributeNames names of the attributes
+         * @param trainingData   encoded examples, see loadData
+         */
+        DataSet(String[] classes, String[][] attributes, String[] attributeNames, int[][] trainingData) {
+            super(classes, attributes, attributeNames);
+            this.trainingData = trainingData;
+        }
+    }
+
+    /**
+     * encodes the lines of a .data file and collects the resulting rows
+     */
+    static class RowParser {
+        private final Schema schema;
+        private final ByteDictionary[] dictionaries; //one per attribute, the one of the classes last
+        private int[][] rows = new int[1024][];
+        private int size;
+
+        /**
+         * @param schema classes and attributes of the data set
+         */
+        RowParser(Schema schema) {
+            this.schema = schema;
+            this.dictionaries = new ByteDictionary[schema.attributes.length + 1];
+            for (int i = 0; i < schema.attributes.length; i++) {
+                dictionaries[i] = new ByteDictionary(schema.attributes[i]);
+            }
+            dictionaries[schema.attributes.length] = new ByteDictionary(schema.classes);
+        }
+
+        /**
+         * creates a parser with its own rows, sharing the dictionaries of another parser
+         *
+         * @param shared parser to take the schema and dictionaries from
+         */
+        RowParser(RowParser shared) {
+            this.schema = shared.schema;
+            this.dictionaries = shared.dictionaries;
+        }
+
+        /**
+         * encodes one line, blank lines are skipped
+         *
+         * @param buf  bytes containing the line, read with absolute indexes
+         * @param from index of the first byte of the line
+         * @param to   index of the line break (or the end of the input)
+         * @param line line number for error messages
+         * @throws IOException if the line does not match the schema
+         */
+        void parseLine(ByteBuffer buf, int from, int to, long line) throws IOException {
+            while (to > from && isWhitespace(buf.get(to - 1))) { //also removes the \r of windows line breaks
+                to--;
+            }
+            while (from < to && isWhitespace(buf.get(from))) {
+                from++;
+            }
+            if (from == to) {
+                return;
+            }
+            int[] row = new int[dictionaries.length];
+            int column = 0;
+            int tokenStart = from;
+            for (int i = from; i <= to; i++) {
+                if (i == to || buf.get(i) == ',') {
+                    if (column == row.length) {
+                        throw new IOException("line " + line + ": more than " + row.length + " values");
+                    }
+                    int start = tokenStart;
+                    int end = i;
+                    while (start < end && isWhitespace(buf.get(start))) {
+                        start++;
+                    }
+                    while (end > start && isWhitespace(buf.get(end - 1))) {
+                        end--;
+                    }
+                    int value = dictionaries[column].get(buf, start, end);
+                    if (value < 0) {
+                        byte[] name = new byte[end - start];
+                        for (int j = 0; j < name.length; j++) {
+                            name[j] = buf.get(start + j);
+                        }
+                        throw new IOException("line " + line + ": unknown value \"" + new String(name, StandardCharsets.UTF_8)
+                                + "\" of " + (column < schema.attributes.length ? "attribute " + schema.attributeNames[column] : "the class"));
+                    }
+                    row[column++] = value;
+                    tokenStart = i + 1;
+                }
+            }
+            if (column != row.length) {
+                throw new IOException("line " + line + ": expected " + row.length + " values but found " + column);
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+            rows[size++] = row;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+
+        /**
+         * @return the rows parsed so far
+         */
+        int[][] getRows() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+
+    /**
+     * the car evaluation data set, loaded from "car.data" or its cache "car.data.cache"
+     */
+    static class CarData extends DataSet {
+
         public CarData() {
-            //load the car_data examples
-            classes = new String[]{
+            super(schema(), new int[0][]);
+            System.out.println("Loading Training Data...");
+            try {
+                trainingData = load();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * @return schema of the car_data examples
+         */
+        static Schema schema() {
+            return new Schema(new String[]{
                     "unacc", "acc", "good", "vgood"
-            };
-            attributes = new String[][]{
+            }, new String[][]{
                     {"vhigh", "high", "med", "low"},
                     {"vhigh", "high", "med", "low"},
                     {"2", "3", "4", "5more"},
                     {"2", "4", "more"},
                     {"small", "med", "big"},
                     {"low", "med", "high"}
-            };
-            attributeNames = new String[]{"buying", "maint", "doors", "persons", "lug_boot", "safety"};
-            trainingData = new int[1728][attributes.length + 1];
-            System.out.println("Loading Training Data...");
-            try {
-                try (BufferedReader br = new BufferedReader(new FileReader("car.data"))) {
-                    int i = 0;
-                    String line = br.readLine();
-                    while (line != null) {
-                        loadLine(line, classes, attributes, trainingData, i++);
-                        line = br.readLine();
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            }, new String[]{"buying", "maint", "doors", "persons", "lug_boot", "safety"});
+        }
+
+        /**
+         * loads car.data of the working directory through its data cache, without printing anything
+         *
+         * @return encoded examples
+         * @throws IOException if car.data can't be read
+         */
+        static int[][] load() throws IOException {
+            return DataCache.load(Paths.get("car.data"), Paths.get("car.data.cache"), schema());
         }
     }
 }
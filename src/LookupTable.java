@@ -0,0 +1,92 @@
+/**
+ * Classifier that stores the decision of another model for every possible combination of attribute values.
+ * <p>
+ * A row is encoded as a mixed-radix number (the first attribute being the most significant digit),
+ * which is used as index into a byte array of precomputed classes.
+ * This only pays off for small attribute spaces, like the 1728 combinations of the car domain.
+ */
+public class LookupTable implements Classifier {
+    public static final int DEFAULT_LIMIT = 1 << 24;
+
+    private final int[] radix; //multiplier of each attribute's value in the encoded index
+    private final int[] valueCount; //number of values of each attribute
+    private final byte[] table;
+
+    /**
+     * precomputes the decisions of the given model using the default size limit
+     *
+     * @param model      trained model to ask
+     * @param attributes attributes the model decides on
+     */
+    public LookupTable(Classifier model, String[][] attributes) {
+        this(model, attributes, DEFAULT_LIMIT);
+    }
+
+    /**
+     * precomputes the decisions of the given model
+     *
+     * @param model      trained model to ask
+     * @param attributes attributes the model decides on
+     * @param limit      maximum number of attribute value combinations
+     * @throws IllegalArgumentException if an attribute is continuous or there are too many combinations
+     */
+    public LookupTable(Classifier model, String[][] attributes, int limit) {
+        radix = new int[attributes.length];
+        valueCount = new int[attributes.length];
+        long size = 1;
+        for (int i = attributes.length - 1; i >= 0; i--) {
+            if (attributes[i] == null) {
+                throw new IllegalArgumentException("attribute " + i + " is continuous, a lookup table needs discrete attributes");
+            }
+            valueCount[i] = attributes[i].length;
+            radix[i] = (int) size;
+            size *= attributes[i].length;
+            if (size > limit) {
+                throw new IllegalArgumentException("the attribute space is larger than " + limit + " combinations");
+            }
+        }
+        table = new byte[(int) size];
+        int[] row = new int[attributes.length + 1]; //extra column for models that expect the class of the example
+        for (int index = 0; index < table.length; index++) {
+            int c = model.decide(row);
+            if (c < 0 || c > 0xFF) {
+                throw new IllegalArgumentException("class " + c + " does not fit into a byte");
+            }
+            table[index] = (byte) c;
+            //count up the attribute values like the digits of a number
+            for (int i = attributes.length - 1; i >= 0 && ++row[i] == attributes[i].length; i--) {
+                row[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * @param attributes attributes of the example
+     * @return index of the combination of the attribute values
+     * @throws IllegalArgumentException if an attribute has no valid value
+     */
+    public int encode(int[] attributes) {
+        int index = 0;
+        for (int i = 0; i < radix.length; i++) {
+            int value = attributes[i];
+            if (value < 0 || value >= valueCount[i]) { //would silently encode another combination
+                throw new IllegalArgumentException("value " + value + " of attribute " + i + " is out of range");
+            }
+            index += value * radix[i];
+        }
+        return index;
+    }
+
+    /**
+     * @param index encoded attribute values (see encode)
+     * @return class
+     */
+    public int decideEncoded(int index) {
+        return table[index] & 0xFF;
+    }
+
+    @Override
+    public int decide(int[] attributes) {
+        return table[encode(attributes)] & 0xFF;
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decision tree which classifies directly on a memory-mapped file written by DecisionTree.writeBinary.
+ * <p>
+ * Only the class and attribute dictionaries are copied to the heap,
+ * the nodes are read from the mapped buffer on every decision.
+ */
+public class MappedTree implements Classifier {
+    static final int MAGIC = 0x44545245; //"DTRE"
+    static final int VERSION = 1;
+
+    private final String[] classes;
+    private final String[][] attributes;
+    private final String[] attributeNames;
+    private final int[] valueCount; //number of values of each attribute
+    private final IntBuffer attribute; //attribute of an internal node, -1 for leaves
+    private final IntBuffer childOffset; //index of the first child of an internal node
+    private final IntBuffer leafClass; //class of a leaf
+    private final IntBuffer classDistribution; //sums of training instances by class, one row per node
+
+    /**
+     * reads the header of the tree and creates views of its node arrays
+     *
+     * @param buffer buffer holding a tree in the format of DecisionTree.writeBinary
+     * @throws IOException if the buffer does not hold a supported tree
+     */
+    public MappedTree(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        if (b.remaining() < 8 || b.getInt() != MAGIC) {
+            throw new IOException("not a decision tree file");
+        }
+        int version = b.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        try {
+            classes = new String[b.getInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = readString(b);
+            }
+            attributes = new String[b.getInt()][];
+            attributeNames = new String[attributes.length];
+            valueCount = new int[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                attributeNames[i] = readString(b);
+                attributes[i] = new String[b.getInt()];
+                valueCount[i] = attributes[i].length;
+                for (int j = 0; j < attributes[i].length; j++) {
+                    attributes[i][j] = readString(b);
+                }
+            }
+            while (b.position() % 8 != 4) { //skip padding
+                b.get();
+            }
+            int nodes = b.getInt();
+            attribute = slice(b, nodes);
+            childOffset = slice(b, nodes);
+            leafClass = slice(b, nodes);
+            classDistribution = slice(b, nodes * classes.length);
+        } catch (RuntimeException e) { //BufferUnderflowException, NegativeArraySizeException, ...
+            throw new IOException("corrupt decision tree file", e);
+        }
+    }
+
+    /**
+     * maps a tree file into memory
+     *
+     * @param path file written by DecisionTree.writeBinary
+     * @return tree backed by the mapped file
+     * @throws IOException if the file can't be mapped or does not hold a supported tree
+     */
+    public static MappedTree load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("tree file is too large to be mapped");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedTree(buffer); //the mapping stays valid after closing the channel
+        }
+    }
+
+    /**
+     * @param b      buffer positioned at the array
+     * @param length number of ints
+     * @return view of the array, b is positioned after it
+     */
+    private static IntBuffer slice(ByteBuffer b, int length) {
+        ByteBuffer s = b.slice();
+        s.limit(length * 4);
+        b.position(b.position() + length * 4);
+        return s.asIntBuffer();
+    }
+
+    /**
+     * @param b buffer positioned at a byte count followed by UTF-8 bytes
+     * @return the decoded string
+     */
+    private static String readString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param attributes attributes to check
+     * @return index of the leaf the attributes lead to
+     * @throws IllegalArgumentException if a checked attribute has no valid value
+     */
+    private int findLeaf(int[] attributes) {
+        int n = 0;
+        int a;
+        while ((a = attribute.get(n)) >= 0) {
+            int value = attributes[a];
+            if (value < 0 || value >= valueCount[a]) { //would silently lead to a child of another node
+                throw new IllegalArgumentException("value " + value + " of attribute " + attributeNames[a] + " is out of range");
+            }
+            n = childOffset.get(n) + value;
+        }
+        return n;
+    }
+
+    @Override
+    public int decide(int[] attributes) {
+        return leafClass.get(findLeaf(attributes));
+    }
+
+    /**
+     * @param attributes attributes to check
+     * @return sums of training instances by class in the leaf the attributes lead to
+     */
+    public int[] getClassDistribution(int[] attributes) {
+        int[] result = new int[classes.length];
+        int from = findLeaf(attributes) * classes.length;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = classDistribution.get(from + i);
+        }
+        return result;
+    }
+
+    public String[] getClasses() {
+        return classes;
+    }
+
+    public String[][] getAttributes() {
+        return attributes;
+    }
+
+    public String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * @return number of nodes of the tree
+     */
+    public int size() {
+        return attribute.limit();
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Mini-batch k-means (Sculley, 2010) for data sets which don't fit into memory.
+ * <p>
+ * The data points are consumed in batches of a fixed size. Each center moves towards the points assigned to it
+ * with a learning rate of 1 / (number of points assigned to it so far).
+ * Only one batch is held in memory at a time.
+ */
+public class MiniBatchKMeans {
+    private final double[][] centers;
+    private final long[] counts; //points assigned to each center so far
+    private final double[][] batch;
+    private final int[] batchAssignment;
+    private final SplittableRandom random;
+    private boolean seeded;
+    private double[][] pending = new double[0][]; //copies of the points seen before there were k to choose the centers from
+
+    /**
+     * @param k          number of centers
+     * @param dimensions number of coordinates of a data point
+     * @param batchSize  number of data points per batch, at least k
+     * @param seed       seed for choosing the initial centers
+     */
+    public MiniBatchKMeans(int k, int dimensions, int batchSize, long seed) {
+        if (batchSize < k) {
+            throw new IllegalArgumentException("the batch size has to be at least k");
+        }
+        this.centers = new double[k][dimensions];
+        this.counts = new long[k];
+        this.batch = new double[batchSize][dimensions];
+        this.batchAssignment = new int[batchSize];
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * consumes all data points in batches.
+     * The points are copied into the batch, so the iterator may return the same array every time.
+     *
+     * @param points data points
+     */
+    public void fit(Iterator<double[]> points) {
+        while (points.hasNext()) {
+            int size = 0;
+            while (size < batch.length && points.hasNext()) {
+                System.arraycopy(points.next(), 0, batch[size++], 0, centers[0].length);
+            }
+            update(batch, size);
+        }
+    }
+
+    /**
+     * updates the centers with one batch.
+     * The initial centers are chosen once k points have been seen, points of smaller batches before that are kept
+     * and used along with the batch, which completes them.
+     *
+     * @param points data points
+     * @param size   number of data points to use
+     */
+    public void update(double[][] points, int size) {
+        if (!seeded) {
+            double[][] all = Arrays.copyOf(pending, pending.length + size);
+            System.arraycopy(points, 0, all, pending.length, size);
+            if (all.length < centers.length) { //not enough points to choose the initial centers
+                for (int i = pending.length; i < all.length; i++) {
+                    all[i] = all[i].clone(); //the caller may reuse the arrays, like fit does
+                }
+                pending = all;
+                return;
+            }
+            pending = new double[0][];
+            points = all;
+            size = all.length;
+            //choose k different points of the batch at random
+            int[] indexes = new int[size];
+            for (int i = 0; i < size; i++) {
+                indexes[i] = i;
+            }
+            for (int i = 0; i < centers.length; i++) {
+                int j = i + random.nextInt(size - i);
+                int t = indexes[i];
+                indexes[i] = indexes[j];
+                indexes[j] = t;
+                System.arraycopy(points[indexes[i]], 0, centers[i], 0, centers[i].length);
+            }
+            seeded = true;
+        }
+        int[] assignment = size <= batchAssignment.length ? batchAssignment : new int[size];
+        //assign the whole batch before moving any center
+        for (int i = 0; i < size; i++) {
+            assignment[i] = findClosestCenter(points[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            int c = assignment[i];
+            double eta = 1 / (double) ++counts[c];
+            double[] center = centers[c];
+            for (int j = 0; j < center.length; j++) {
+                center[j] += eta * (points[i][j] - center[j]);
+            }
+        }
+    }
+
+    /**
+     * @param point data point
+     * @return index of the closest center
+     */
+    public int findClosestCenter(double[] point) {
+        double min = Double.POSITIVE_INFINITY;
+        int minIndex = 0;
+        for (int j = 0; j < centers.length; j++) {
+            double current = 0;
+            for (int i = 0; i < centers[j].length; i++) {
+                double d = centers[j][i] - point[i];
+                current += d * d;
+            }
+            if (current < min) {
+                min = current;
+                minIndex = j;
+            }
+        }
+        return minIndex;
+    }
+
+    /**
+     * @return copy of the centers
+     */
+    public double[][] getCenters() {
+        double[][] result = new double[centers.length][];
+        for (int i = 0; i < centers.length; i++) {
+            result[i] = centers[i].clone();
+        }
+        return result;
+    }
+
+    /**
+     * @return copy of the number of data points assigned to each center so far
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * iterates over a file of row-major, big-endian doubles (as written by DataOutputStream) without loading it,
+     * the file is mapped into memory one window at a time.
+     * The iterator returns the same array for every data point and has to be closed, e.g. by try-with-resources.
+     *
+     * @param file       binary file of data points
+     * @param dimensions number of coordinates of a data point
+     * @return iterator over the data points
+     * @throws IOException if the file can't be opened or its size isn't a multiple of the size of a data point
+     */
+    public static MappedPoints mappedPoints(Path file, int dimensions) throws IOException {
+        return new MappedPoints(file, dimensions);
+    }
+
+    /**
+     * data points of a mapped file, see mappedPoints
+     */
+    public static class MappedPoints implements Iterator<double[]>, Closeable {
+        private final FileChannel channel;
+        private final long rowBytes;
+        private final long windowBytes;
+        private final long rows;
+        private final double[] point;
+        private long row;
+        private DoubleBuffer window = DoubleBuffer.allocate(0);
+
+        private MappedPoints(Path file, int dimensions) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            rowBytes = 8L * dimensions;
+            windowBytes = Math.max(1, (1L << 26) / rowBytes) * rowBytes; //whole rows only
+            long size = channel.size();
+            if (size % rowBytes != 0) {
+                channel.close();
+                throw new IOException(file + " has " + size + " bytes, which isn't a multiple of "
+                        + rowBytes + " bytes per data point");
+            }
+            rows = size / rowBytes;
+            point = new double[dimensions];
+        }
+
+        @Override
+        public boolean hasNext() {
+            return row < rows;
+        }
+
+        @Override
+        public double[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (!window.hasRemaining()) {
+                long position = row * rowBytes;
+                long size = Math.min(windowBytes, rows * rowBytes - position);
+                try {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asDoubleBuffer();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            window.get(point);
+            row++;
+            return point;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
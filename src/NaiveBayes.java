@@ -1,65 +1,316 @@
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by max on 16.01.17.
+ * <p>
+ * The training examples are counted once by class and by attribute value and class,
+ * so a prediction only needs table lookups.
+ * The counts can be updated incrementally, also by many threads while others keep predicting.
+ * A prediction may then see an example which is only partially counted.
+ * <p>
+ * Predictions read a snapshot of the log-probabilities, so they are plain array reads.
+ * The first prediction after learning (or with another weight of the m-estimate) rebuilds the snapshot from the counters.
  */
-public class NaiveBayes {
+public class NaiveBayes implements Classifier {
     String[] classes;
     String[][] attributes;
     String[] attributeNames;
     int[][] trainingData;
+    private LongAdder[] countClass; //v=vj
+    private LongAdder[] countMatchPerClass; //v=vj & a=ai, the count of value v of attribute a and class c is at (valueOffsets[a] + v) * classes.length + c
+    private LongAdder countAll;
+    private int[] valueOffsets; //offset of the first value of each attribute in countMatchPerClass
+    private volatile boolean changed = true; //whether the counters changed since the snapshot was taken
+    private volatile Snapshot snapshot; //null before the first prediction
 
-    public NaiveBayes(String[] classes, String[][] attributes, String[] attributeNames, int[][] trainingData) {
+    /**
+     * log-probabilities of the counts at one point in time, for one weight of the m-estimate
+     */
+    private static class Snapshot {
+        final double weight;
+        final double[] logPrior; //log(p(vj)), -Infinity for classes without examples
+        final double[] logLikelihood; //log(p(ai|vj)), indexed like countMatchPerClass
+
+        Snapshot(double weight, double[] logPrior, double[] logLikelihood) {
+            this.weight = weight;
+            this.logPrior = logPrior;
+            this.logLikelihood = logLikelihood;
+        }
+    }
+
+    /**
+     * creates a model without any training examples, which can be trained with learn and learnAll
+     *
+     * @param classes        classes to assign to the input
+     * @param attributes     attributes to decide on
+     * @param attributeNames names of the attributes
+     */
+    public NaiveBayes(String[] classes, String[][] attributes, String[] attributeNames) {
         this.classes = classes;
         this.attributes = attributes;
         this.attributeNames = attributeNames;
+        this.trainingData = new int[0][];
+        this.valueOffsets = new int[attributes.length];
+        int valueCount = 0;
+        for (int i = 0; i < attributes.length; i++) {
+            valueOffsets[i] = valueCount;
+            valueCount += attributes[i].length;
+        }
+        this.countClass = newCounters(classes.length);
+        this.countMatchPerClass = newCounters(valueCount * classes.length);
+        this.countAll = new LongAdder();
+    }
+
+    public NaiveBayes(String[] classes, String[][] attributes, String[] attributeNames, int[][] trainingData) {
+        this(classes, attributes, attributeNames);
         this.trainingData = trainingData;
+        learnAll(trainingData);
+    }
+
+    private static LongAdder[] newCounters(int n) {
+        LongAdder[] counters = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * adds one training example to the model
+     *
+     * @param example attribute values followed by the class
+     * @throws IllegalArgumentException if a value or the class is out of range
+     */
+    public void learn(int[] example) {
+        checkRange(example, true);
+        int c = example[attributes.length];
+        for (int j = 0; j < attributes.length; j++) {
+            countMatchPerClass[(valueOffsets[j] + example[j]) * classes.length + c].increment();
+        }
+        countClass[c].increment();
+        countAll.increment();
+        if (!changed) { //only written once, so learning threads don't contend for it
+            changed = true;
+        }
+    }
+
+    /**
+     * adds a batch of training examples to the model.
+     * The batch is counted locally first, so every counter is only updated once.
+     *
+     * @param examples attribute values followed by the class, one row per example
+     * @throws IllegalArgumentException if a value or the class is out of range, then no example is added
+     */
+    public void learnAll(int[][] examples) {
+        long[] classCounts = new long[countClass.length];
+        long[] matchCounts = new long[countMatchPerClass.length];
+        for (int[] example : examples) {
+            count(example, matchCounts, classCounts);
+        }
+        add(matchCounts, classCounts, examples.length);
+    }
+
+    /**
+     * adds a subset of training examples to the model without copying them
+     *
+     * @param examples attribute values followed by the class, one row per example
+     * @param rows     indexes of the examples to add
+     * @throws IllegalArgumentException if a value or the class is out of range, then no example is added
+     */
+    public void learnAll(int[][] examples, int[] rows) {
+        long[] classCounts = new long[countClass.length];
+        long[] matchCounts = new long[countMatchPerClass.length];
+        for (int row : rows) {
+            count(examples[row], matchCounts, classCounts);
+        }
+        add(matchCounts, classCounts, rows.length);
+    }
+
+    private void count(int[] example, long[] matchCounts, long[] classCounts) {
+        checkRange(example, true);
+        int c = example[attributes.length];
+        classCounts[c]++;
+        for (int j = 0; j < attributes.length; j++) {
+            matchCounts[(valueOffsets[j] + example[j]) * classes.length + c]++;
+        }
+    }
+
+    /**
+     * @param example   attribute values, followed by the class if it is checked
+     * @param withClass whether the class is checked too
+     * @throws IllegalArgumentException if a value or the class is out of range,
+     *                                  which would silently use the counters of another attribute
+     */
+    private void checkRange(int[] example, boolean withClass) {
+        for (int j = 0; j < attributes.length; j++) {
+            if (example[j] < 0 || example[j] >= attributes[j].length) {
+                throw new IllegalArgumentException("value " + example[j] + " of attribute " + attributeNames[j] + " is out of range");
+            }
+        }
+        if (withClass && (example[attributes.length] < 0 || example[attributes.length] >= classes.length)) {
+            throw new IllegalArgumentException("class " + example[attributes.length] + " is out of range");
+        }
+    }
+
+    /**
+     * adds the training examples of another model, which uses the same classes and attributes
+     *
+     * @param other partially trained model
+     */
+    public void merge(NaiveBayes other) {
+        if (other.countMatchPerClass.length != countMatchPerClass.length || other.countClass.length != countClass.length) {
+            throw new IllegalArgumentException("the models use different classes or attributes");
+        }
+        add(sum(other.countMatchPerClass), sum(other.countClass), other.countAll.sum());
+    }
+
+    private static long[] sum(LongAdder[] counters) {
+        long[] result = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            result[i] = counters[i].sum();
+        }
+        return result;
     }
 
+    private void add(long[] matchCounts, long[] classCounts, long all) {
+        for (int i = 0; i < matchCounts.length; i++) {
+            if (matchCounts[i] != 0) {
+                countMatchPerClass[i].add(matchCounts[i]);
+            }
+        }
+        for (int i = 0; i < classCounts.length; i++) {
+            if (classCounts[i] != 0) {
+                countClass[i].add(classCounts[i]);
+            }
+        }
+        countAll.add(all);
+        if (!changed) {
+            changed = true;
+        }
+    }
+
+    /**
+     * @param ex     attributes to check
+     * @param weight equivalent sample size of the m-estimate, 0 for relative frequencies
+     * @return a-posteriori probability of each class
+     */
     public double[] checkAttributes(int[] ex, double weight) {
+        double[] result = logScores(ex, weight);
+        //normalize to a-posteriori probability, relative to the best class to avoid underflow
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : result) {
+            max = Math.max(max, score);
+        }
+        if (max == Double.NEGATIVE_INFINITY) { //no class is possible at all
+            Arrays.fill(result, 0);
+            return result;
+        }
+        double sum = 0;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Math.exp(result[i] - max);
+            sum += result[i];
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= sum;
+        }
+        return result;
+    }
+
+    /**
+     * computes log(p(vi)*product(p(ai|vj))) for each class, which doesn't underflow with many attributes
+     *
+     * @param ex     attributes to check
+     * @param weight equivalent sample size of the m-estimate, 0 for relative frequencies
+     * @return unnormalized logarithm of the a-posteriori probability of each class
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public double[] logScores(int[] ex, double weight) {
+        checkRange(ex, false);
+        Snapshot s = snapshot;
+        if (changed || s == null || s.weight != weight) {
+            s = takeSnapshot(weight);
+        }
         double[] result = new double[classes.length];
-        int[] countAttr = new int[attributes.length]; //a=ai
-        int[] countClass = new int[classes.length]; //v=vj
-        int[][] countMatchPerClass = new int[attributes.length][classes.length]; //v=vj & a=ai
-        //do the necessary counting
-        for (int i = 0; i < trainingData.length; i++) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] = s.logPrior[i];
+            if (result[i] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
             for (int j = 0; j < attributes.length; j++) {
-                if (ex[j] == trainingData[i][j]) {
-                    countAttr[j]++;
-                    countMatchPerClass[j][trainingData[i][attributes.length]]++;
-                    break;
-                }
+                result[i] += s.logLikelihood[(valueOffsets[j] + ex[j]) * classes.length + i];
             }
-            countClass[trainingData[i][attributes.length]]++;
         }
-        //multiply p(vi)*product(p(ai|vj))
-        for (int i = 0; i < result.length; i++) {
-            result[i] = countClass[i] / (double) trainingData.length;
+        return result;
+    }
+
+    /**
+     * computes the log-probabilities of the current counts.
+     * Synchronized, so an older snapshot never replaces a newer one.
+     *
+     * @param weight equivalent sample size of the m-estimate, 0 for relative frequencies
+     * @return the new snapshot
+     */
+    private synchronized Snapshot takeSnapshot(double weight) {
+        Snapshot s = snapshot;
+        if (!changed && s != null && s.weight == weight) { //another thread was faster
+            return s;
+        }
+        changed = false; //before reading the counters, so learning during the rebuild marks it as outdated again
+        long[] classCounts = sum(countClass);
+        long[] matchCounts = sum(countMatchPerClass);
+        double all = countAll.sum();
+        double[] logPrior = new double[classes.length];
+        double[] logLikelihood = new double[matchCounts.length];
+        for (int i = 0; i < classes.length; i++) {
+            double count = classCounts[i];
+            if (count == 0) {
+                logPrior[i] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            logPrior[i] = Math.log(count / all);
             for (int j = 0; j < attributes.length; j++) {
-                result[i] *= (countMatchPerClass[j][i] + weight / (double) attributes[j].length) / (double) countClass[i] + weight;
+                for (int v = 0; v < attributes[j].length; v++) {
+                    int k = (valueOffsets[j] + v) * classes.length + i;
+                    logLikelihood[k] = Math.log((matchCounts[k] + weight / attributes[j].length) / (count + weight));
+                }
             }
         }
-        //normalize to a-posteriori probability
-        double sum = Arrays.stream(result).sum();
-        for (int i = 0; i < result.length; i++) {
-            result[i] *= 1 / (double) sum;
+        s = new Snapshot(weight, logPrior, logLikelihood);
+        snapshot = s;
+        return s;
+    }
+
+    /**
+     * @param ex attributes to check
+     * @return class with the highest a-posteriori probability
+     */
+    @Override
+    public int decide(int[] ex) {
+        double[] estimate = logScores(ex, 0);
+        double max = Double.NEGATIVE_INFINITY;
+        int maxI = 0;
+        for (int i = 0; i < estimate.length; i++) {
+            if (estimate[i] > max) {
+                maxI = i;
+                max = estimate[i];
+            }
         }
-        return result;
+        return maxI;
     }
 
     public int[][] confusionMatrix() {
+        return confusionMatrix(trainingData);
+    }
+
+    /**
+     * @param samples attribute values followed by the class, one row per example
+     * @return count of examples by real class (rows) and estimated class (columns)
+     */
+    public int[][] confusionMatrix(int[][] samples) {
         int[][] confusionMatrix = new int[classes.length][classes.length];
-        for (int[] sample : trainingData) {
-            double[] estimate = checkAttributes(sample, 0);
-            double max = 0;
-            int maxI = 0;
-            for (int i = 0; i < estimate.length; i++) {
-                if (estimate[i] > max) {
-                    maxI = i;
-                    max = estimate[i];
-                }
-            }
-            confusionMatrix[sample[attributes.length]][maxI]++;
+        for (int[] sample : samples) {
+            confusionMatrix[sample[attributes.length]][decide(sample)]++;
         }
         return confusionMatrix;
     }
@@ -0,0 +1,191 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Ensemble of ID3 trees, each built on a bootstrap sample of the training examples
+ * and considering only a random subset of the attributes at each split. The trees vote on the class.
+ * <p>
+ * A bootstrap sample is the count of each training example, so no rows are copied.
+ * The trees are trained concurrently, and the result depends only on the seed.
+ */
+public class RandomForest implements Classifier {
+    private static final int BATCH_ROWS = 4096; //rows, which are voted on together
+    private static final int TREES_PER_TASK = 8; //trees, which vote in one task
+    private final int classes;
+    private final CompiledTree[] trees;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param schema             classes and attributes of the data
+     * @param data               attribute values followed by the class, one row per example, must not be modified
+     * @param rows               indexes of the examples to train on
+     * @param treeCount          number of trees
+     * @param attributesPerSplit number of attributes considered at each split, 0 for all
+     * @param seed               seed of the bootstrap samples and the attribute choices
+     * @param pool               pool, which trains the trees and votes in decideAll
+     */
+    public RandomForest(LoadC4_5.Schema schema, int[][] data, int[] rows, int treeCount, int attributesPerSplit,
+                        long seed, ForkJoinPool pool) {
+        if (rows.length == 0) {
+            throw new IllegalArgumentException("a forest needs at least one training example");
+        }
+        this.classes = schema.classes.length;
+        this.trees = new CompiledTree[treeCount];
+        this.pool = pool;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[treeCount];
+        for (int t = 0; t < treeCount; t++) {
+            randoms[t] = root.split();
+        }
+        pool.submit(() -> IntStream.range(0, treeCount).parallel().forEach(t -> {
+            SplittableRandom random = randoms[t];
+            int[] counts = new int[data.length]; //bootstrap sample: rows.length draws with replacement
+            int sampled = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (counts[rows[random.nextInt(rows.length)]]++ == 0) {
+                    sampled++;
+                }
+            }
+            int[] examples = new int[sampled];
+            int next = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    examples[next++] = i;
+                }
+            }
+            DecisionTree tree = new DecisionTree(schema.classes, schema.attributes, data, schema.attributeNames);
+            tree.setAttributeSampling(attributesPerSplit, random.nextLong());
+            tree.ID3(examples, counts);
+            trees[t] = tree.compile();
+        })).join();
+    }
+
+    /**
+     * Entry point
+     * compares a random forest with a single tree by cross-validation on the car data
+     *
+     * @param args number of trees and number of attributes per split
+     */
+    public static void main(String[] args) {
+        LoadC4_5.CarData carData = new LoadC4_5.CarData();
+        int treeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int attributesPerSplit = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.println("Decision Tree (ID3):");
+        System.out.println(CrossValidation.crossValidate(CrossValidation.decisionTree(carData), carData.trainingData,
+                carData.classes.length, 10, 0, ForkJoinPool.commonPool()));
+        System.out.println("Random Forest (" + treeCount + " trees, " + attributesPerSplit + " attributes per split):");
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        System.out.println(CrossValidation.crossValidate(CrossValidation.randomForest(carData, treeCount, attributesPerSplit, 0, pool),
+                carData.trainingData, carData.classes.length, 10, 0, pool));
+    }
+
+    /**
+     * @param attributes attributes to decide on
+     * @return class with the most votes, the lowest one on a tie
+     */
+    @Override
+    public int decide(int[] attributes) {
+        int[] votes = new int[classes];
+        for (CompiledTree tree : trees) {
+            votes[tree.decide(attributes)]++;
+        }
+        return argMax(votes, 0);
+    }
+
+    /**
+     * decides many rows at once. The rows are split into batches, which are voted on in parallel,
+     * and the trees of a batch vote in parallel as well.
+     *
+     * @param rows rows of attribute values, may have additional columns like the class
+     * @param out  gets the class with the most votes of each row
+     */
+    @Override
+    public void decideAll(int[][] rows, int[] out) {
+        int batches = (rows.length + BATCH_ROWS - 1) / BATCH_ROWS;
+        pool.submit(() -> IntStream.range(0, batches).parallel().forEach(b -> {
+            int from = b * BATCH_ROWS;
+            int to = Math.min(rows.length, from + BATCH_ROWS);
+            int[] votes = new VoteTask(rows, from, to, 0, trees.length).invoke();
+            for (int i = from; i < to; i++) {
+                out[i] = argMax(votes, (i - from) * classes);
+            }
+        })).join();
+    }
+
+    /**
+     * @return number of trees
+     */
+    public int size() {
+        return trees.length;
+    }
+
+    /**
+     * @param votes votes of several rows
+     * @param from  index of the first vote of the row
+     * @return class with the most votes, the lowest one on a tie
+     */
+    private int argMax(int[] votes, int from) {
+        int max = 0;
+        for (int c = 1; c < classes; c++) {
+            if (votes[from + c] > votes[from + max]) {
+                max = c;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * counts the votes of a range of trees on a batch of rows
+     */
+    private class VoteTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+        private final int[][] rows;
+        private final int from;
+        private final int to;
+        private final int firstTree;
+        private final int lastTree;
+
+        /**
+         * @param rows      all rows
+         * @param from      first row of the batch
+         * @param to        row after the last row of the batch
+         * @param firstTree first tree, which votes
+         * @param lastTree  tree after the last tree, which votes
+         */
+        VoteTask(int[][] rows, int from, int to, int firstTree, int lastTree) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.firstTree = firstTree;
+            this.lastTree = lastTree;
+        }
+
+        /**
+         * @return votes of the trees, the votes for class c on row i are at (i - from) * classes + c
+         */
+        @Override
+        protected int[] compute() {
+            if (lastTree - firstTree > TREES_PER_TASK) {
+                int mid = (firstTree + lastTree) >>> 1;
+                VoteTask left = new VoteTask(rows, from, to, firstTree, mid);
+                left.fork();
+                int[] votes = new VoteTask(rows, from, to, mid, lastTree).compute();
+                int[] other = left.join();
+                for (int i = 0; i < votes.length; i++) {
+                    votes[i] += other[i];
+                }
+                return votes;
+            }
+            int[] votes = new int[(to - from) * classes];
+            for (int t = firstTree; t < lastTree; t++) { //one tree after another, so its arrays stay in the cache
+                CompiledTree tree = trees[t];
+                for (int i = from; i < to; i++) {
+                    votes[(i - from) * classes + tree.decide(rows[i])]++;
+                }
+            }
+            return votes;
+        }
+    }
+}
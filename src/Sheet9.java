@@ -1,6 +1,7 @@
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -14,53 +15,35 @@ public class Sheet9 {
         Vector3D v = new Vector3D(20, 4, 4);
         double delta = 0.5;
         double[] weights = {1, 1, 1};
+        WeightedKDTree tree = new WeightedKDTree(toArray(vs), 3, weights, ForkJoinPool.commonPool());
         for (int i = 0; i < 6; i++) {
-            int n = getNearestNeighbour(vs, vs[i], weights);
+            int n = tree.nearest(i);
             updateWeights(getClass(n) == getClass(i),weights,n,i,vs,delta);
+            tree.setWeights(weights);
             System.out.println(Arrays.toString(weights));
         }
-        System.out.println(getNearestNeighbour(vs,v,weights));
+        System.out.println(tree.nearest(toArray(new Vector3D[]{v}), 0, 1, -1)[0]);
     }
 
-    static int getClass(int i) {
-        return i / 3;
+    /**
+     * @param vs vectors
+     * @return coordinates of the vectors, row-major
+     */
+    static double[] toArray(Vector3D[] vs) {
+        double[] result = new double[vs.length * 3];
+        for (int i = 0; i < vs.length; i++) {
+            result[3 * i] = vs[i].getX();
+            result[3 * i + 1] = vs[i].getY();
+            result[3 * i + 2] = vs[i].getZ();
+        }
+        return result;
     }
 
-    static double weightedDistance(Vector3D a, Vector3D b, double[] weights) {
-        return Math.abs(a.getX() - b.getX()) * weights[0] +
-                Math.abs(a.getY() - b.getY()) * weights[1] +
-                Math.abs(a.getZ() - b.getZ()) * weights[2];
+    static int getClass(int i) {
+        return i / 3;
     }
 
     static void updateWeights(boolean correct, double[] weights, int a, int b, Vector3D[] vs, double delta) {
-        double[] results = {Math.abs(vs[a].getX() - vs[b].getX()) * weights[0],
-                Math.abs(vs[a].getY() - vs[b].getY()) * weights[1],
-                Math.abs(vs[a].getZ() - vs[b].getZ()) * weights[2]};
-        int min = 0;
-        int max = 0;
-        for (int i = 0; i < 3; i++) {
-            if (results[i] < results[min]) {
-                min = i;
-            } else if (results[i] > results[max]) {
-                max = i;
-            }
-        }
-        weights[min]+=(correct?1:-1)*delta;
-        weights[max]-=(correct?1:-1)*delta;
-    }
-
-    static int getNearestNeighbour(Vector3D[] vs, Vector3D v, double[] weights) {
-        int min = 0;
-        double minDist = Double.POSITIVE_INFINITY;
-        for (int i = 0; i < vs.length; i++) {
-            if (vs[i] != v) {
-                double dist = weightedDistance(vs[i], v, weights);
-                if (dist < minDist) {
-                    min = i;
-                    minDist = dist;
-                }
-            }
-        }
-        return min;
+        FeatureWeightLearner.updateWeights(correct, weights, toArray(new Vector3D[]{vs[a], vs[b]}), 0, 3, delta);
     }
 }
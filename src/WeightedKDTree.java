@@ -0,0 +1,384 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * KD-tree for nearest-neighbour search with the weighted L1 distance
+ * sum over j of weights[j] * |a[j] - b[j]| of Sheet9, in any number of dimensions.
+ * <p>
+ * The tree is built over the unweighted coordinates and the weights are only applied while searching,
+ * so they can be changed with setWeights without rebuilding the tree.
+ * Ties are broken by the lower index, so the results are the same as the ones of a linear scan.
+ */
+public class WeightedKDTree {
+    private static final int LEAF_SIZE = 8; //maximum number of points in a leaf
+    private static final int SEQUENTIAL_CUTOFF = 1 << 14; //points, which are split up in one task
+    private final int dimensions;
+    private final int size;
+    private final double[] coordinates; //copy of the points in tree order, point at position p starts at p * dimensions
+    private final int[] index; //original index of the point at each position
+    private final int[] position; //position of each point in tree order
+    private final int depth; //levels of internal nodes, all leaves are at this depth
+    private final int[] splitAxis; //per internal node in heap order, children of node n are 2n+1 and 2n+2
+    private final double[] splitValue;
+    private double[] weights;
+    private boolean negativeWeights; //the pruning needs non-negative weights, otherwise all points are scanned
+
+    /**
+     * @param points     coordinates of the points, row-major, are copied
+     * @param dimensions number of coordinates of each point
+     * @param weights    weight of each dimension
+     * @param pool       pool, which builds the tree
+     */
+    public WeightedKDTree(double[] points, int dimensions, double[] weights, ForkJoinPool pool) {
+        this.dimensions = dimensions;
+        this.size = points.length / dimensions;
+        int d = 0;
+        while ((size + (1 << d) - 1) >> d > LEAF_SIZE) {
+            d++;
+        }
+        this.depth = d;
+        this.splitAxis = new int[(1 << depth) - 1];
+        this.splitValue = new double[splitAxis.length];
+        this.index = IntStream.range(0, size).toArray();
+        pool.invoke(new BuildTask(points, 0, 0, size, 0));
+        this.coordinates = new double[size * dimensions];
+        this.position = new int[size];
+        for (int p = 0; p < size; p++) {
+            position[index[p]] = p;
+            System.arraycopy(points, index[p] * dimensions, coordinates, p * dimensions, dimensions);
+        }
+        setWeights(weights);
+    }
+
+    /**
+     * Takes effect immediately, the tree doesn't have to be rebuilt.
+     * Must not be called while queries are running.
+     *
+     * @param weights new weight of each dimension, is copied
+     */
+    public void setWeights(double[] weights) {
+        if (weights.length != dimensions) {
+            throw new IllegalArgumentException("expected " + dimensions + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+        negativeWeights = false;
+        for (double w : weights) {
+            negativeWeights |= w < 0;
+        }
+    }
+
+    /**
+     * @return copy of the current weights
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * @return number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param query     array containing the query point
+     * @param queryFrom index of the first coordinate of the query point
+     * @param count     number of neighbours to find, at least 1
+     * @param exclude   index of a point, which is not returned (usually the query point itself), -1 for none
+     * @return indexes of the nearest points, the nearest first
+     */
+    public int[] nearest(double[] query, int queryFrom, int count, int exclude) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1, got " + count);
+        }
+        Search search = new Search(query, queryFrom, count, exclude);
+        if (negativeWeights) {
+            for (int p = 0; p < size; p++) {
+                search.offer(p);
+            }
+        } else {
+            search.descend(0, 0, size, 0, 0);
+        }
+        return search.result();
+    }
+
+    /**
+     * @param i index of a point
+     * @return index of the nearest other point, -1 if there is none
+     */
+    public int nearest(int i) {
+        int[] result = nearest(coordinates, position[i] * dimensions, 1, i);
+        return result.length == 0 ? -1 : result[0];
+    }
+
+    /**
+     * @param queries query points, row-major
+     * @param count   number of neighbours to find per query, at least 1
+     * @param pool    pool, which runs the queries
+     * @return indexes of the nearest points of each query, the nearest first
+     */
+    public int[][] nearestAll(double[] queries, int count, ForkJoinPool pool) {
+        int[][] result = new int[queries.length / dimensions][];
+        pool.submit(() -> IntStream.range(0, result.length).parallel()
+                .forEach(q -> result[q] = nearest(queries, q * dimensions, count, -1))).join();
+        return result;
+    }
+
+    /**
+     * finds the nearest other point of every point of the tree
+     *
+     * @param pool pool, which runs the queries
+     * @return index of the nearest other point of each point, -1 if there is none
+     */
+    public int[] nearestOfAll(ForkJoinPool pool) {
+        int[] result = new int[size];
+        pool.submit(() -> IntStream.range(0, size).parallel().forEach(p -> {
+            int[] nearest = nearest(coordinates, p * dimensions, 1, index[p]);
+            result[index[p]] = nearest.length == 0 ? -1 : nearest[0];
+        })).join();
+        return result;
+    }
+
+    /**
+     * @param p      position of a point in the tree
+     * @param query  array containing the query point
+     * @param qFrom  index of the first coordinate of the query point
+     * @return weighted L1 distance between the point and the query point
+     */
+    private double distance(int p, double[] query, int qFrom) {
+        int from = p * dimensions;
+        double result = 0;
+        for (int j = 0; j < dimensions; j++) {
+            result += Math.abs(coordinates[from + j] - query[qFrom + j]) * weights[j];
+        }
+        return result;
+    }
+
+    /**
+     * splits a slice of the points at its median along the axis of the largest spread
+     */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[] points;
+        private final int node;
+        private final int from;
+        private final int to;
+        private final int level;
+
+        BuildTask(double[] points, int node, int from, int to, int level) {
+            this.points = points;
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            if (level == depth) {
+                return;
+            }
+            int axis = 0;
+            double maxSpread = -1;
+            for (int j = 0; j < dimensions; j++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int p = from; p < to; p++) {
+                    double x = points[index[p] * dimensions + j];
+                    min = Math.min(min, x);
+                    max = Math.max(max, x);
+                }
+                if (max - min > maxSpread) {
+                    maxSpread = max - min;
+                    axis = j;
+                }
+            }
+            int mid = (from + to) >>> 1;
+            select(points, axis, from, to, mid);
+            splitAxis[node] = axis;
+            splitValue[node] = points[index[mid] * dimensions + axis];
+            BuildTask left = new BuildTask(points, 2 * node + 1, from, mid, level + 1);
+            BuildTask right = new BuildTask(points, 2 * node + 2, mid, to, level + 1);
+            if (to - from > SEQUENTIAL_CUTOFF) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+
+        /**
+         * reorders the slice, so that position k holds the point, which would be there if the slice was sorted
+         * along the axis, with no larger values before and no smaller values after it
+         */
+        private void select(double[] points, int axis, int from, int to, int k) {
+            int lo = from;
+            int hi = to - 1;
+            while (lo < hi) {
+                double pivot = points[index[(lo + hi) >>> 1] * dimensions + axis];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (points[index[i] * dimensions + axis] < pivot) {
+                        i++;
+                    }
+                    while (points[index[j] * dimensions + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = index[i];
+                        index[i] = index[j];
+                        index[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * state of one query, keeps the best points found so far in a max-heap ordered by distance and index
+     */
+    private class Search {
+        private final double[] query;
+        private final int queryFrom;
+        private final int exclude;
+        private final double[] offset; //distance of the query point to the current cell along each axis, weighted
+        private final double[] heapDistance;
+        private final int[] heapIndex;
+        private int heapSize;
+
+        Search(double[] query, int queryFrom, int count, int exclude) {
+            this.query = query;
+            this.queryFrom = queryFrom;
+            this.exclude = exclude;
+            this.offset = new double[dimensions];
+            int capacity = Math.min(count, size);
+            this.heapDistance = new double[capacity];
+            this.heapIndex = new int[capacity];
+        }
+
+        /**
+         * @param node         internal node or leaf
+         * @param from         first position of the points of the node
+         * @param to           position after the last point of the node
+         * @param level        depth of the node
+         * @param cellDistance lower bound of the distance of the query point to any point of the node
+         */
+        void descend(int node, int from, int to, int level, double cellDistance) {
+            if (level == depth) {
+                for (int p = from; p < to; p++) {
+                    offer(p);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            int axis = splitAxis[node];
+            double diff = query[queryFrom + axis] - splitValue[node];
+            if (diff <= 0) {
+                descend(2 * node + 1, from, mid, level + 1, cellDistance);
+            } else {
+                descend(2 * node + 2, mid, to, level + 1, cellDistance);
+            }
+            double old = offset[axis];
+            double current = Math.abs(diff) * weights[axis];
+            double farDistance = cellDistance - old + current;
+            //a point at the same distance could still win by its lower index
+            if (heapSize < heapDistance.length || farDistance <= heapDistance[0]) {
+                offset[axis] = current;
+                if (diff <= 0) {
+                    descend(2 * node + 2, mid, to, level + 1, farDistance);
+                } else {
+                    descend(2 * node + 1, from, mid, level + 1, farDistance);
+                }
+                offset[axis] = old;
+            }
+        }
+
+        /**
+         * @param p position of a candidate point
+         */
+        void offer(int p) {
+            int i = index[p];
+            if (i == exclude || heapDistance.length == 0) {
+                return;
+            }
+            double d = distance(p, query, queryFrom);
+            if (heapSize < heapDistance.length) {
+                heapDistance[heapSize] = d;
+                heapIndex[heapSize] = i;
+                siftUp(heapSize++);
+            } else if (isWorse(heapDistance[0], heapIndex[0], d, i)) {
+                heapDistance[0] = d;
+                heapIndex[0] = i;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return whether the first point is farther away than the second one
+         */
+        private boolean isWorse(double d1, int i1, double d2, int i2) {
+            return d1 > d2 || d1 == d2 && i1 > i2;
+        }
+
+        private void siftUp(int c) {
+            while (c > 0) {
+                int parent = (c - 1) / 2;
+                if (!isWorse(heapDistance[c], heapIndex[c], heapDistance[parent], heapIndex[parent])) {
+                    return;
+                }
+                swap(c, parent);
+                c = parent;
+            }
+        }
+
+        private void siftDown(int c) {
+            while (true) {
+                int worst = c;
+                for (int child = 2 * c + 1; child <= 2 * c + 2 && child < heapSize; child++) {
+                    if (isWorse(heapDistance[child], heapIndex[child], heapDistance[worst], heapIndex[worst])) {
+                        worst = child;
+                    }
+                }
+                if (worst == c) {
+                    return;
+                }
+                swap(c, worst);
+                c = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double d = heapDistance[a];
+            heapDistance[a] = heapDistance[b];
+            heapDistance[b] = d;
+            int i = heapIndex[a];
+            heapIndex[a] = heapIndex[b];
+            heapIndex[b] = i;
+        }
+
+        /**
+         * @return indexes of the found points, the nearest first
+         */
+        int[] result() {
+            int[] result = new int[heapSize];
+            for (int r = heapSize - 1; r >= 0; r--) {
+                result[r] = heapIndex[0];
+                swap(0, --heapSize);
+                siftDown(0);
+            }
+            return result;
+        }
+    }
+}